@@ -12,8 +12,20 @@ repositories {
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+tasks.register<JavaExec>("soak") {
+    group = "verification"
+    description = "Runs the headless endless-wave soak scenario and writes a flight recording to build/soak.jfr."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("SoakScenario")
+    args(
+        providers.gradleProperty("soakSeconds").getOrElse("120"),
+        layout.buildDirectory.file("soak.jfr").get().asFile.path
+    )
+}
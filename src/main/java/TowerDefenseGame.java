@@ -1,11 +1,43 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.function.Supplier;
 import java.util.function.Consumer;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
 
 public class TowerDefenseGame {
     public static void main(String[] args) {
@@ -17,7 +49,7 @@ class GameFrame extends JFrame {
     public GameFrame() {
         setTitle("Tower Defense Game");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
-        setSize(1400, 600);
+        setSize(1400, 800);
         setLayout(new BorderLayout());
 
         GamePanel gamePanel = new GamePanel();
@@ -31,39 +63,63 @@ class GameFrame extends JFrame {
 }
 
 class GamePanel extends JPanel {
-    private final MapGrid map;
-    private final List<Enemy> enemies;
-    private final List<Tower> towers;
-    private final javax.swing.Timer gameTimer;
-    private int playerHealth = 10;
-    private static int playerGold = 300;
-    private int waveCounter = 0;
-    private int enemiesToSpawn = 0;
-    private javax.swing.Timer waveSpawner;
+    private static final long ADVISOR_BUDGET_MILLIS = 900;
+    private static final long SUGGESTION_MILLIS = 10000;
+
+    private final GameSimulation simulation;
+    private final SnapshotBuffer snapshots = new SnapshotBuffer();
+    private final ScheduledExecutorService simulationThread;
+    private final ExecutorService advisorThread;
+    private final PlacementAdvisor advisor;
+    private final javax.swing.Timer repaintTimer;
+    private final FrameGovernor governor = new FrameGovernor(
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("towerdefense.frameBudgetMillis", 8)));
     private boolean sellMode = false;
-    private final List<Beam> beams = new ArrayList<>();
     private Supplier<Tower> selectedTowerSupplier = () -> new Tower(0, 0);
-    private Consumer<Tower> upgradeMode = null;
-
-    private final List<int[]> predefinedWaves;
-    private boolean randomWaves = false;
+    private Function<Tower, Tower> upgradeMode = null;
+    private List<PlacementAdvisor.Move> suggestion = null;
+    private boolean suggestionSampleWave;
+    private long suggestionShownAt;
+    private volatile int heatmapLayer = -1;
 
     public GamePanel() {
-        map = new MapGrid(15, 20);
-        enemies = new ArrayList<>();
-        towers = new ArrayList<>();
-
-        predefinedWaves = generatePredefinedWaves();
+        simulation = new GameSimulation(new MapGrid(15, 20), System.currentTimeMillis(),
+                Boolean.getBoolean("towerdefense.fixedPoint"));
+        simulation.setMessageListener(message ->
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(GamePanel.this, message)));
 
         setPreferredSize(new Dimension(800, 600));
         setBackground(Color.GRAY);
 
-        gameTimer = new javax.swing.Timer(16, e -> updateGame());
-        gameTimer.start();
+        simulationThread = Executors.newSingleThreadScheduledExecutor(daemonThreads("simulation"));
+        advisorThread = Executors.newSingleThreadExecutor(daemonThreads("advisor"));
+        advisor = new PlacementAdvisor(simulation.getMap(), simulation.isFixedPoint());
+
+        String telemetryDir = System.getProperty("towerdefense.telemetryDir");
+        if (telemetryDir != null) {
+            ExecutorService telemetryThread = Executors.newSingleThreadExecutor(daemonThreads("telemetry"));
+            simulation.setWaveEndListener((wave, telemetry) -> {
+                Telemetry copy = telemetry.copy(simulation.getMap());
+                telemetryThread.execute(() -> {
+                    try {
+                        copy.export(Path.of(telemetryDir, String.format("wave-%04d.tdcol", wave)), wave);
+                    } catch (IOException e) {
+                        System.err.println("Telemetry export failed: " + e.getMessage());
+                    }
+                });
+            });
+        }
 
-        new javax.swing.Timer(1000, e -> playerGold += 5).start();
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke('h'), "cycleHeatmap");
+        getActionMap().put("cycleHeatmap", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                cycleHeatmap();
+            }
+        });
+        simulationThread.scheduleAtFixedRate(this::stepSimulation, 0, GameSimulation.TICK_MILLIS, TimeUnit.MILLISECONDS);
 
-        startNextWave();
+        repaintTimer = new javax.swing.Timer(GameSimulation.TICK_MILLIS, e -> repaint());
+        repaintTimer.start();
 
         addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
@@ -71,64 +127,491 @@ class GamePanel extends JPanel {
                 int y = e.getY() / MapGrid.CELL_SIZE;
 
                 if (sellMode) {
-                    Iterator<Tower> iterator = towers.iterator();
-                    while (iterator.hasNext()) {
-                        Tower tower = iterator.next();
-                        if (tower.getX() == x && tower.getY() == y) {
-                            iterator.remove();
-                            playerGold += 15;
-                            repaint();
-                            return;
-                        }
-                    }
+                    simulation.submit(sim -> sim.sellTower(x, y));
                 } else if (upgradeMode != null) {
-                    towers.stream()
-                            .filter(t -> t.getX() == x && t.getY() == y)
-                            .findFirst()
-                            .ifPresent(tower -> {
-                                upgradeMode.accept(tower);
-                                upgradeMode = null;
-                            });
-                } else {
-                    if (selectedTowerSupplier != null && map.isPlacable(x, y) && !isTowerAtPosition(x, y)) {
-                        Tower newTower = selectedTowerSupplier.get();
-                        newTower.setPosition(x, y);
-                        if (playerGold >= newTower.getCost()) {
-                            towers.add(newTower);
-                            playerGold -= newTower.getCost();
-                            repaint();
-                        } else {
-                            JOptionPane.showMessageDialog(GamePanel.this, "Sell Tower Mode Enabled!");
-                        }
+                    if (snapshots.latest().hasTowerAt(x, y)) {
+                        Function<Tower, Tower> upgrade = upgradeMode;
+                        simulation.submit(sim -> sim.upgradeTower(x, y, upgrade));
+                        upgradeMode = null;
                     }
+                } else if (selectedTowerSupplier != null) {
+                    Supplier<Tower> supplier = selectedTowerSupplier;
+                    simulation.submit(sim -> sim.placeTower(x, y, supplier.get()));
                 }
             }
         });
     }
 
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public void cycleHeatmap() {
+        heatmapLayer = heatmapLayer + 1 < Telemetry.LAYER_NAMES.length ? heatmapLayer + 1 : -1;
+    }
+
+    public void requestSuggestion() {
+        simulation.submit(sim -> {
+            PlacementAdvisor.Layout layout = PlacementAdvisor.capture(sim);
+            advisorThread.execute(() -> {
+                List<PlacementAdvisor.Move> moves = advisor.suggest(layout, ADVISOR_BUDGET_MILLIS);
+                SwingUtilities.invokeLater(() -> {
+                    suggestion = moves;
+                    suggestionSampleWave = layout.isSampleWave();
+                    suggestionShownAt = System.currentTimeMillis();
+                });
+            });
+        });
+    }
+
+    private void stepSimulation() {
+        // A throwable escaping a scheduleAtFixedRate task cancels every later run. A failed tick or command is
+        // reported and the game keeps going, as it did on the Swing timer; a half-written snapshot is simply never
+        // published. Errors leave the simulation in an unknown state, so they still stop it.
+        try {
+            simulation.tick();
+            snapshots.beginWrite().capture(simulation, heatmapLayer);
+            snapshots.publish();
+        } catch (RuntimeException e) {
+            System.err.print("Simulation step failed, continuing: ");
+            e.printStackTrace();
+        } catch (Error e) {
+            System.err.print("Simulation stopped: ");
+            e.printStackTrace();
+            throw e;
+        }
+
+        if (simulation.isGameOver()) {
+            simulationThread.shutdown();
+            SwingUtilities.invokeLater(() -> {
+                repaintTimer.stop();
+                JOptionPane.showMessageDialog(this, "Game Over! You lost all health.");
+                System.exit(0);
+            });
+        }
+    }
+
+    public void setSellMode(boolean sellMode) {
+        this.sellMode = sellMode;
+    }
+
+    public void setSelectedTowerSupplier(Supplier<Tower> supplier) {
+        this.selectedTowerSupplier = supplier;
+    }
+
+    public void setUpgradeMode(Function<Tower, Tower> mode) {
+        this.upgradeMode = mode;
+    }
+
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        super.paintComponent(g);
+
+        simulation.getMap().draw(g);
+        snapshots.latest().draw(g, governor.getLevel());
+
+        if (suggestion != null && System.currentTimeMillis() - suggestionShownAt < SUGGESTION_MILLIS) {
+            drawSuggestion(g);
+        }
+
+        if (governor.record(System.nanoTime() - start)) {
+            repaintTimer.setDelay(governor.repaintDelay(GameSimulation.TICK_MILLIS));
+        }
+    }
+
+    private void drawSuggestion(Graphics g) {
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < suggestion.size(); i++) {
+            PlacementAdvisor.Move move = suggestion.get(i);
+            int left = move.getX() * MapGrid.CELL_SIZE;
+            int top = move.getY() * MapGrid.CELL_SIZE;
+            g.drawRect(left, top, MapGrid.CELL_SIZE - 1, MapGrid.CELL_SIZE - 1);
+            g.drawRect(left + 1, top + 1, MapGrid.CELL_SIZE - 3, MapGrid.CELL_SIZE - 3);
+            g.drawString(String.valueOf(i + 1), left + 4, top + 14);
+        }
+
+        if (suggestion.isEmpty()) {
+            g.drawString("Advisor: keep the current layout", 10, 55);
+        }
+        for (int i = 0; i < suggestion.size(); i++) {
+            g.drawString("Advisor " + (i + 1) + ": " + suggestion.get(i).describe(), 10, 55 + i * 15);
+        }
+        if (suggestionSampleWave) {
+            g.drawString("Advisor: endless waves are random, so this was scored against a sample wave",
+                    10, 55 + Math.max(1, suggestion.size()) * 15);
+        }
+    }
+}
+
+class GameSimulation {
+    public static final int TICK_MILLIS = 16;
+    public static final int BEAM_TICKS = ticksFor(100);
+    private static final int PARALLEL_ATTACK_THRESHOLD = 1 << 16;
+    private static final int EFFECT_CAPACITY = 4096;
+    private static final int PROJECTILE_CAPACITY = 1 << 16;
+
+    private final MapGrid map;
+    private final boolean fixedPoint;
+    private final List<Enemy> enemies = new ArrayList<>();
+    private final List<Tower> towers = new ArrayList<>();
+    private final EffectRing effects = new EffectRing(EFFECT_CAPACITY);
+    private final ProjectileSystem projectiles = new ProjectileSystem(PROJECTILE_CAPACITY);
+    private final EnemyGrid enemyGrid;
+    private final Telemetry telemetry;
+    private final DamageLedger ledger = new DamageLedger();
+    private final KillSchedule kills = new KillSchedule();
+    private final List<Enemy> killsToReschedule = new ArrayList<>();
+    private final Queue<Consumer<GameSimulation>> commands = new ConcurrentLinkedQueue<>();
+    private final EnemyPool enemyPool;
+    private int[] spawnQueue = new int[16];
+    private int spawnHead;
+    private int spawnCount;
+    private final Random random = new Random();
+    private final List<int[]> predefinedWaves;
+    private Consumer<String> messageListener = message -> {};
+    private BiConsumer<Integer, Telemetry> waveEndListener = null;
+    private Enemy[] plannedTargets = new Enemy[0];
+    private final WaveEvent waveEvent = new WaveEvent();
+    private final SpawnBurstEvent spawnEvent = new SpawnBurstEvent();
+    private final SlowTickEvent tickEvent = new SlowTickEvent();
+    private final MassKillEvent massKillEvent = new MassKillEvent();
+    private boolean waveOpen;
+    private boolean parallelAttacks = true;
+    private long tick;
+    private long nextIncomeTime;
+    private long nextSpawnTime;
+    private boolean spawning;
+    private int playerHealth;
+    private int playerGold;
+    private int waveCounter;
+    private boolean randomWaves;
+    private boolean gameOver;
+    private int enemiesKilled;
+    private int enemiesLeaked;
+
+    public GameSimulation(MapGrid map, long seed) {
+        this(map, seed, false);
+    }
+
+    public GameSimulation(MapGrid map, long seed, boolean fixedPoint) {
+        this.map = map;
+        this.fixedPoint = fixedPoint;
+        this.enemyGrid = new EnemyGrid(map);
+        this.telemetry = new Telemetry(map);
+        this.enemyPool = new EnemyPool(map, fixedPoint, telemetry);
+        this.predefinedWaves = generatePredefinedWaves();
+
+        reset(seed);
+    }
+
+    public void reset(long seed) {
+        waveOpen = false;
+        for (int i = 0; i < enemies.size(); i++) {
+            enemyPool.release(enemies.get(i));
+        }
+        enemies.clear();
+        towers.clear();
+        effects.clear();
+        projectiles.clear();
+        kills.clear();
+        killsToReschedule.clear();
+        commands.clear();
+        telemetry.reset();
+        random.setSeed(seed);
+
+        tick = 0;
+        nextIncomeTime = 1000;
+        spawning = false;
+        playerHealth = 10;
+        playerGold = 300;
+        waveCounter = 0;
+        randomWaves = false;
+        gameOver = false;
+        enemiesKilled = 0;
+        enemiesLeaked = 0;
+
+        startNextWave();
+    }
+
+    public void submit(Consumer<GameSimulation> command) {
+        commands.add(command);
+    }
+
+    public void setMessageListener(Consumer<String> messageListener) {
+        this.messageListener = messageListener;
+    }
+
+    public void setWaveEndListener(BiConsumer<Integer, Telemetry> waveEndListener) {
+        this.waveEndListener = waveEndListener;
+    }
+
+    public void setParallelAttacks(boolean parallelAttacks) {
+        this.parallelAttacks = parallelAttacks;
+    }
+
+    public void tick() {
+        boolean profiling = tickEvent.isEnabled();
+        if (profiling) {
+            tickEvent.begin();
+            tickEvent.lap();
+            tickEvent.movementTime = 0;
+            tickEvent.attackTime = 0;
+            tickEvent.projectileTime = 0;
+        }
+        int killsBefore = enemiesKilled;
+
+        Consumer<GameSimulation> command;
+        while ((command = commands.poll()) != null) {
+            command.accept(this);
+        }
+
+        if (profiling) {
+            tickEvent.commandTime = tickEvent.lap();
+        }
+        if (gameOver) {
+            if (profiling) {
+                recordSlowTick();
+            }
+            return;
+        }
+
+        long now = currentTime();
+
+        if (now >= nextIncomeTime) {
+            playerGold += 5;
+            nextIncomeTime += 1000;
+        }
+
+        if (spawning && now >= nextSpawnTime) {
+            if (spawnHead < spawnCount) {
+                if (spawnHead == 0) {
+                    spawnEvent.begin();
+                }
+                enemies.add(enemyPool.obtain(spawnQueue[spawnHead++]));
+            } else {
+                spawning = false;
+                finishSpawnBurst();
+            }
+            nextSpawnTime += 1000;
+        }
+
+        Enemy dead;
+        while ((dead = kills.pollBefore(tick)) != null) {
+            dead.markDying();
+        }
+
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy enemy = enemies.get(i);
+
+            if (enemy.isAtEnd()) {
+                playerHealth--;
+                enemiesLeaked++;
+                telemetry.recordLeak(enemy);
+                enemies.remove(i--);
+                enemyPool.release(enemy);
+
+                if (playerHealth <= 0) {
+                    gameOver = true;
+                    if (profiling) {
+                        recordSlowTick();
+                    }
+                    return;
+                }
+            }
+            else if (enemy.isDying()) {
+                incrementGold(enemy.getGoldDrop());
+                enemiesKilled++;
+                enemies.remove(i--);
+                enemyPool.release(enemy);
+            }
+            else {
+                enemy.move(now);
+                telemetry.recordDwell(enemy);
+            }
+        }
+
+        if (profiling) {
+            tickEvent.movementTime = tickEvent.lap();
+        }
+
+        ledger.beginTick(enemies, now);
+        projectiles.commitPending(ledger);
+        attackPhase();
+        if (profiling) {
+            tickEvent.attackTime = tickEvent.lap();
+        }
+
+        enemyGrid.build(enemies);
+        projectiles.update(this, enemyGrid);
+        if (profiling) {
+            tickEvent.projectileTime = tickEvent.lap();
+        }
+
+        for (int i = 0; i < killsToReschedule.size(); i++) {
+            Enemy enemy = killsToReschedule.get(i);
+            enemy.clearKillStale();
+            kills.schedule(enemy, enemy.predictKillTick());
+        }
+        killsToReschedule.clear();
+
+        effects.expire(tick);
+
+        int killed = enemiesKilled - killsBefore;
+        if (killed >= MassKillEvent.MIN_KILLS) {
+            recordMassKill(killed);
+        }
+
+        if (enemies.isEmpty() && !spawning) {
+            startNextWave();
+        }
+
+        if (profiling) {
+            recordSlowTick();
+        }
+
+        tick++;
+    }
+
+    private void recordSlowTick() {
+        tickEvent.end();
+        if (tickEvent.shouldCommit()) {
+            tickEvent.tick = tick;
+            tickEvent.wave = waveCounter;
+            tickEvent.enemies = enemies.size();
+            tickEvent.towers = towers.size();
+            tickEvent.projectiles = projectiles.size();
+            tickEvent.commit();
+        }
+    }
+
+    public void skipToWave(int wave) {
+        for (int i = 0; i < enemies.size(); i++) {
+            enemyPool.release(enemies.get(i));
+        }
+        enemies.clear();
+        projectiles.clear();
+        kills.clear();
+        killsToReschedule.clear();
+
+        waveCounter = wave - 1;
+        randomWaves = waveCounter >= predefinedWaves.size();
+        startNextWave();
+    }
+
+    private void attackPhase() {
+        int towerCount = towers.size();
+        if (plannedTargets.length < towerCount) {
+            plannedTargets = new Enemy[Math.max(towerCount, plannedTargets.length * 2)];
+        }
+
+        if (parallelAttacks && (long) towerCount * enemies.size() >= PARALLEL_ATTACK_THRESHOLD) {
+            IntStream.range(0, towerCount).parallel()
+                    .forEach(i -> plannedTargets[i] = towers.get(i).planAttack(this));
+        } else {
+            for (int i = 0; i < towerCount; i++) {
+                plannedTargets[i] = towers.get(i).planAttack(this);
+            }
+        }
+
+        // Damage is only ever added during this phase, so a planned target that is still alive
+        // is exactly what a serial pass would have picked; anything else is re-targeted in order.
+        for (int i = 0; i < towerCount; i++) {
+            towers.get(i).resolveAttack(this, plannedTargets[i]);
+            plannedTargets[i] = null;
+        }
+    }
+
     private void startNextWave() {
-        if (waveSpawner != null && waveSpawner.isRunning()) {
-            waveSpawner.stop();
+        if (waveCounter > 0 && waveEndListener != null) {
+            waveEndListener.accept(waveCounter, telemetry);
         }
+        telemetry.reset();
+        finishWave();
 
         waveCounter++;
-        List<Enemy> waveEnemies = generateWaveEnemies();
+        spawnHead = 0;
+        spawnCount = 0;
+        queueWaveEnemies();
+        spawning = true;
+        nextSpawnTime = currentTime() + 1000;
+
+        waveOpen = true;
+        waveEvent.begin();
+        waveEvent.wave = waveCounter;
+        waveEvent.random = randomWaves;
+        waveEvent.queued = spawnCount;
+        waveEvent.startTick = tick;
+        waveEvent.startKills = enemiesKilled;
+        waveEvent.startLeaks = enemiesLeaked;
+        waveEvent.startHealth = playerHealth;
+    }
 
-        waveSpawner = new javax.swing.Timer(1000, new ActionListener() {
-            private final Iterator<Enemy> enemyIterator = waveEnemies.iterator();
+    private void finishWave() {
+        if (!waveOpen) {
+            return;
+        }
+        waveOpen = false;
+        waveEvent.end();
+        if (waveEvent.shouldCommit()) {
+            waveEvent.ticks = tick - waveEvent.startTick;
+            waveEvent.kills = enemiesKilled - waveEvent.startKills;
+            waveEvent.leaks = enemiesLeaked - waveEvent.startLeaks;
+            waveEvent.towers = towers.size();
+            waveEvent.endHealth = playerHealth;
+            waveEvent.gold = playerGold;
+            waveEvent.commit();
+        }
+    }
 
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (enemyIterator.hasNext()) {
-                    enemies.add(enemyIterator.next());
-                } else {
-                    waveSpawner.stop();
-                    enemiesToSpawn = 0;
+    private void finishSpawnBurst() {
+        spawnEvent.end();
+        if (spawnEvent.shouldCommit()) {
+            spawnEvent.wave = waveCounter;
+            spawnEvent.runts = 0;
+            spawnEvent.knights = 0;
+            spawnEvent.brutes = 0;
+            for (int i = 0; i < spawnCount; i++) {
+                switch (spawnQueue[i]) {
+                    case EnemyPool.RUNT: spawnEvent.runts++; break;
+                    case EnemyPool.KNIGHT: spawnEvent.knights++; break;
+                    default: spawnEvent.brutes++; break;
                 }
             }
-        });
+            spawnEvent.spawned = spawnCount;
+            spawnEvent.enemies = enemies.size();
+            spawnEvent.commit();
+        }
+    }
+
+    private void recordMassKill(int killed) {
+        massKillEvent.begin();
+        massKillEvent.end();
+        if (massKillEvent.shouldCommit()) {
+            massKillEvent.tick = tick;
+            massKillEvent.wave = waveCounter;
+            massKillEvent.kills = killed;
+            massKillEvent.remaining = enemies.size();
+            massKillEvent.projectiles = projectiles.size();
+            massKillEvent.commit();
+        }
+    }
 
-        waveSpawner.start();
+    private void recordTowerChange(String action, Tower tower) {
+        TowerChangeEvent event = new TowerChangeEvent();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.kind = TowerKinds.name(TowerKinds.kindOf(tower));
+            event.x = tower.getX();
+            event.y = tower.getY();
+            event.cost = tower.getCost();
+            event.towers = towers.size();
+            event.gold = playerGold;
+            event.commit();
+        }
     }
 
     private List<int[]> generatePredefinedWaves() {
@@ -145,84 +628,87 @@ class GamePanel extends JPanel {
         return waves;
     }
 
-    private List<Enemy> generateWaveEnemies() {
-        List<Enemy> waveEnemies = new ArrayList<>();
-
+    private void queueWaveEnemies() {
         if (!randomWaves && waveCounter <= predefinedWaves.size()) {
             int[] waveConfig = predefinedWaves.get(waveCounter - 1);
             int runts = waveConfig[0];
             int knights = waveConfig[1];
             int brutes = waveConfig[2];
 
-            Point startPoint = map.getPathPoints().get(0);
             for (int i = 0; i < runts; i++) {
-                waveEnemies.add(new Runt(startPoint.x, startPoint.y, map));
+                queueSpawn(EnemyPool.RUNT);
             }
             for (int i = 0; i < knights; i++) {
-                waveEnemies.add(new Knight(startPoint.x, startPoint.y, map));
+                queueSpawn(EnemyPool.KNIGHT);
             }
             for (int i = 0; i < brutes; i++) {
-                waveEnemies.add(new Brute(startPoint.x, startPoint.y, map));
+                queueSpawn(EnemyPool.BRUTE);
             }
         } else {
             randomWaves = true;
-            Random random = new Random();
             int totalEnemies = 10 + random.nextInt(6);
-            Point startPoint = map.getPathPoints().get(0);
 
             for (int i = 0; i < totalEnemies; i++) {
-                int type = random.nextInt(3);
-                if (type == 0) {
-                    waveEnemies.add(new Runt(startPoint.x, startPoint.y, map));
-                } else if (type == 1) {
-                    waveEnemies.add(new Knight(startPoint.x, startPoint.y, map));
-                } else {
-                    waveEnemies.add(new Brute(startPoint.x, startPoint.y, map));
-                }
+                queueSpawn(random.nextInt(3));
             }
         }
-
-        return waveEnemies;
     }
 
-    private void updateGame() {
-        Iterator<Enemy> enemyIterator = enemies.iterator();
-        while (enemyIterator.hasNext()) {
-            Enemy enemy = enemyIterator.next();
-
-            if (enemy.isAtEnd()) {
-                playerHealth--;
-                enemyIterator.remove();
+    private void queueSpawn(int type) {
+        if (spawnCount == spawnQueue.length) {
+            spawnQueue = Arrays.copyOf(spawnQueue, spawnCount * 2);
+        }
+        spawnQueue[spawnCount++] = type;
+    }
 
-                if (playerHealth <= 0) {
-                    gameTimer.stop();
-                    JOptionPane.showMessageDialog(this, "Game Over! You lost all health.");
-                    System.exit(0);
-                }
-            }
-            else if (enemy.getHealth() <= 0) {
-                GamePanel.incrementGold(enemy.getGoldDrop());
-                enemyIterator.remove();
-            }
-            else {
-                enemy.move();
+    public void placeTower(int x, int y, Tower newTower) {
+        if (map.isPlacable(x, y) && !isTowerAtPosition(x, y)) {
+            newTower.setPosition(x, y);
+            if (playerGold >= newTower.getCost()) {
+                towers.add(newTower);
+                playerGold -= newTower.getCost();
+                recordTowerChange("place", newTower);
+            } else {
+                messageListener.accept("Sell Tower Mode Enabled!");
             }
         }
+    }
 
-        for (Tower tower : towers) {
-            tower.attack(enemies, beams);
+    public void sellTower(int x, int y) {
+        Iterator<Tower> iterator = towers.iterator();
+        while (iterator.hasNext()) {
+            Tower tower = iterator.next();
+            if (tower.getX() == x && tower.getY() == y) {
+                iterator.remove();
+                playerGold += 15;
+                recordTowerChange("sell", tower);
+                return;
+            }
         }
+    }
 
-        beams.removeIf(beam -> !beam.isActive());
-
-        if (enemies.isEmpty() && enemiesToSpawn == 0 && (waveSpawner == null || !waveSpawner.isRunning())) {
-            startNextWave();
+    public void upgradeTower(int x, int y, Function<Tower, Tower> upgrade) {
+        for (Tower oldTower : towers) {
+            if (oldTower.getX() == x && oldTower.getY() == y) {
+                Tower newTower = upgrade.apply(oldTower);
+                if (newTower == null) {
+                    return;
+                }
+                if (playerGold >= newTower.getCost()) {
+                    towers.remove(oldTower);
+                    newTower.setPosition(oldTower.getX(), oldTower.getY());
+                    towers.add(newTower);
+                    playerGold -= newTower.getCost();
+                    recordTowerChange("upgrade", newTower);
+                } else {
+                    messageListener.accept("Not enough gold!");
+                }
+                return;
+            }
         }
-
-        repaint();
     }
 
-    private boolean isTowerAtPosition(int x, int y) {
+    public boolean isTowerAtPosition(int x, int y) {
         for (Tower tower : towers) {
             if (tower.getX() == x && tower.getY() == y) {
                 return true;
@@ -231,113 +717,428 @@ class GamePanel extends JPanel {
         return false;
     }
 
-    public static void incrementGold(int amount) {
-        playerGold += amount;
+    public static int ticksFor(long millis) {
+        return (int) ((millis + TICK_MILLIS - 1) / TICK_MILLIS);
     }
 
-    public static int getPlayerGold() {
-        return playerGold;
+    public long currentTick() {
+        return tick;
     }
 
-    public void setSellMode(boolean sellMode) {
-        this.sellMode = sellMode;
+    public long currentTime() {
+        return tick * TICK_MILLIS;
     }
 
-    public void setSelectedTowerSupplier(Supplier<Tower> supplier) {
-        this.selectedTowerSupplier = supplier;
+    public void incrementGold(int amount) {
+        playerGold += amount;
     }
 
-    public void setUpgradeMode(Consumer<Tower> mode) {
-        this.upgradeMode = mode;
+    public void damageEnemy(Enemy enemy, int amount, int sourceCell) {
+        telemetry.recordDamage(sourceCell, amount, enemy.getHealth(), false);
+        enemy.reduceHealth(amount);
+        if (enemy.hasDoT()) {
+            rescheduleKill(enemy);
+        }
     }
 
-    public void upgradeTower(Tower oldTower, Tower newTower) {
-        towers.remove(oldTower);
-        newTower.setPosition(oldTower.getX(), oldTower.getY());
-        towers.add(newTower);
-        repaint();
+    public void addDoT(Enemy enemy, int damage, int duration, int sourceCell) {
+        enemy.addDoT(damage, duration, currentTime(), sourceCell);
+        ledger.refresh(enemy);
+        rescheduleKill(enemy);
     }
 
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-
-        map.draw(g);
+    public void addPermanentDoT(Enemy enemy, int initialDamage, int sourceCell) {
+        enemy.addPermanentDoT(initialDamage, currentTime(), sourceCell);
+        ledger.refresh(enemy);
+        rescheduleKill(enemy);
+    }
 
-        for (Enemy enemy : enemies) {
-            enemy.draw(g);
+    private void rescheduleKill(Enemy enemy) {
+        if (!enemy.isKillStale()) {
+            enemy.markKillStale();
+            killsToReschedule.add(enemy);
         }
+    }
 
-        for (Tower tower : towers) {
-            tower.draw(g);
-        }
+    public void killEnemy(Enemy enemy) {
+        incrementGold(enemy.getGoldDrop());
+        enemiesKilled++;
+        enemies.remove(enemy);
+        enemyPool.release(enemy);
+    }
 
-        for (Beam beam : beams) {
-            beam.draw(g);
-        }
+    public void addBeam(int startX, int startY, int endX, int endY) {
+        effects.add(startX, startY, endX, endY, tick + BEAM_TICKS, Color.RED);
+    }
 
-        g.setColor(Color.BLACK);
-        g.drawString("Health: " + playerHealth, 10, 10);
-        g.drawString("Wave: " + waveCounter, 10, 25);
-        g.drawString("Gold: " + playerGold, 10, 40);
+    public MapGrid getMap() {
+        return map;
     }
-}
 
-class TowerSelectionPanel extends JPanel {
-    private boolean isSellMode = false;
+    public boolean isFixedPoint() {
+        return fixedPoint;
+    }
 
-    public TowerSelectionPanel(GamePanel gamePanel) {
-        setPreferredSize(new Dimension(600, 600));
-        setBackground(Color.LIGHT_GRAY);
-        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+    public boolean isRandomWave(int wave) {
+        return wave > predefinedWaves.size();
+    }
 
-        JLabel title = new JLabel("Select Tower");
-        title.setFont(new Font("Arial", Font.BOLD, 24));
-        title.setAlignmentX(CENTER_ALIGNMENT);
+    public List<Enemy> getEnemies() {
+        return enemies;
+    }
 
-        add(title);
-        add(Box.createRigidArea(new Dimension(0, 20)));
+    public List<Tower> getTowers() {
+        return towers;
+    }
 
-        addTowerRow(gamePanel, "Sell Tower", "for 15 Gold", Color.RED, null, e -> {
-            isSellMode = true;
-            gamePanel.setUpgradeMode(null);
-            gamePanel.setSellMode(true);
-        });
+    public EffectRing getEffects() {
+        return effects;
+    }
 
-        addTowerRow(gamePanel, "Normal Tower", "25 Gold", Color.BLUE, () -> new Tower(0, 0), e -> {
-            isSellMode = false;
-            gamePanel.setUpgradeMode(null);
-            gamePanel.setSellMode(false);
-            gamePanel.setSelectedTowerSupplier(() -> new Tower(0, 0));
-        });
+    public ProjectileSystem getProjectiles() {
+        return projectiles;
+    }
 
-        addTowerRow(gamePanel, "Upgrade to Sniper Tower", "200 Gold", Color.CYAN, null, e -> {
-            if (isSellMode) return;
-            gamePanel.setUpgradeMode((Tower tower) -> {
-                if (tower instanceof SniperTower || tower instanceof AutoTower) {
-                    return;
-                }
-                if (GamePanel.getPlayerGold() >= 200) {
-                    gamePanel.upgradeTower(tower, new SniperTower(tower.getX(), tower.getY()));
-                    GamePanel.incrementGold(-200);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Not enough gold!");
-                }
-            });
-        });
+    public Telemetry getTelemetry() {
+        return telemetry;
+    }
 
-        addTowerRow(gamePanel, "Upgrade to Auto Tower", "200 Gold", Color.GRAY, null, e -> {
-            if (isSellMode) return;
-            gamePanel.setUpgradeMode((Tower tower) -> {
-                if (tower instanceof SniperTower || tower instanceof AutoTower) {
-                    return;
+    public DamageLedger getLedger() {
+        return ledger;
+    }
+
+    public int getPlayerHealth() {
+        return playerHealth;
+    }
+
+    public int getPlayerGold() {
+        return playerGold;
+    }
+
+    public void setPlayerGold(int playerGold) {
+        this.playerGold = playerGold;
+    }
+
+    public int getWaveCounter() {
+        return waveCounter;
+    }
+
+    public int getEnemiesKilled() {
+        return enemiesKilled;
+    }
+
+    public int getEnemiesLeaked() {
+        return enemiesLeaked;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
+
+class SnapshotBuffer {
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final FrameSnapshot[] slots = {new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot()};
+    private final AtomicInteger ready = new AtomicInteger(2);
+    private int writeIndex = 0;
+    private int readIndex = 1;
+
+    public FrameSnapshot beginWrite() {
+        return slots[writeIndex];
+    }
+
+    public void publish() {
+        writeIndex = ready.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+    }
+
+    public FrameSnapshot latest() {
+        if ((ready.get() & FRESH) != 0) {
+            readIndex = ready.getAndSet(readIndex) & INDEX_MASK;
+        }
+        return slots[readIndex];
+    }
+}
+
+class FrameSnapshot {
+    private int enemyCount;
+    private double[] enemyX = new double[0];
+    private double[] enemyY = new double[0];
+    private int[] enemyHealth = new int[0];
+    private int towerCount;
+    private int[] towerX = new int[0];
+    private int[] towerY = new int[0];
+    private Color[] towerColor = new Color[0];
+    private int beamCount;
+    private int[] beamCoords = new int[0];
+    private Color[] beamColor = new Color[0];
+    private int projectileCount;
+    private float[] projectileX = new float[0];
+    private float[] projectileY = new float[0];
+    private int[] projectileKind = new int[0];
+    private int heatmapLayer = -1;
+    private int heatmapColumns;
+    private int[] heatmap = new int[0];
+    private int heatmapMax;
+    private int playerHealth;
+    private int waveCounter;
+    private int playerGold;
+
+    private static final Color[] HEAT_COLORS = new Color[32];
+
+    static {
+        for (int i = 0; i < HEAT_COLORS.length; i++) {
+            HEAT_COLORS[i] = new Color(255, 0, 0, 20 + i * 6);
+        }
+    }
+
+    public void capture(GameSimulation simulation, int heatmapLayer) {
+        this.heatmapLayer = heatmapLayer;
+        if (heatmapLayer >= 0) {
+            int[] layer = simulation.getTelemetry().getLayer(heatmapLayer);
+            if (heatmap.length != layer.length) {
+                heatmap = new int[layer.length];
+            }
+            heatmapColumns = simulation.getMap().getCols();
+            heatmapMax = 0;
+            for (int i = 0; i < layer.length; i++) {
+                heatmap[i] = layer[i];
+                heatmapMax = Math.max(heatmapMax, layer[i]);
+            }
+        }
+
+        List<Enemy> enemies = simulation.getEnemies();
+        enemyCount = enemies.size();
+        if (enemyX.length < enemyCount) {
+            int capacity = Math.max(enemyCount, enemyX.length * 2);
+            enemyX = new double[capacity];
+            enemyY = new double[capacity];
+            enemyHealth = new int[capacity];
+        }
+        for (int i = 0; i < enemyCount; i++) {
+            Enemy enemy = enemies.get(i);
+            enemyX[i] = enemy.getExactX();
+            enemyY[i] = enemy.getExactY();
+            enemyHealth[i] = enemy.getHealth();
+        }
+
+        List<Tower> towers = simulation.getTowers();
+        towerCount = towers.size();
+        if (towerX.length < towerCount) {
+            int capacity = Math.max(towerCount, towerX.length * 2);
+            towerX = new int[capacity];
+            towerY = new int[capacity];
+            towerColor = new Color[capacity];
+        }
+        for (int i = 0; i < towerCount; i++) {
+            Tower tower = towers.get(i);
+            towerX[i] = tower.getX();
+            towerY[i] = tower.getY();
+            towerColor[i] = tower.getColor();
+        }
+
+        EffectRing effects = simulation.getEffects();
+        long tick = simulation.currentTick();
+        if (beamColor.length < effects.size()) {
+            int capacity = Math.max(effects.size(), beamColor.length * 2);
+            beamCoords = new int[capacity * 4];
+            beamColor = new Color[capacity];
+        }
+        beamCount = 0;
+        for (int i = 0; i < effects.size(); i++) {
+            int slot = effects.slot(i);
+            if (effects.isActive(slot, tick)) {
+                beamCoords[beamCount * 4] = effects.getStartX(slot);
+                beamCoords[beamCount * 4 + 1] = effects.getStartY(slot);
+                beamCoords[beamCount * 4 + 2] = effects.getEndX(slot);
+                beamCoords[beamCount * 4 + 3] = effects.getEndY(slot);
+                beamColor[beamCount] = effects.getColor(slot);
+                beamCount++;
+            }
+        }
+
+        ProjectileSystem projectiles = simulation.getProjectiles();
+        projectileCount = projectiles.size();
+        if (projectileX.length < projectileCount) {
+            int capacity = Math.max(projectileCount, projectileX.length * 2);
+            projectileX = new float[capacity];
+            projectileY = new float[capacity];
+            projectileKind = new int[capacity];
+        }
+        for (int i = 0; i < projectileCount; i++) {
+            projectileX[i] = projectiles.getX(i);
+            projectileY[i] = projectiles.getY(i);
+            projectileKind[i] = projectiles.getKind(i);
+        }
+
+        playerHealth = simulation.getPlayerHealth();
+        waveCounter = simulation.getWaveCounter();
+        playerGold = simulation.getPlayerGold();
+    }
+
+    public boolean hasTowerAt(int x, int y) {
+        for (int i = 0; i < towerCount; i++) {
+            if (towerX[i] == x && towerY[i] == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void draw(Graphics g, int quality) {
+        if (quality >= FrameGovernor.POINT_ENEMIES) {
+            Enemy.drawPoints(g, enemyX, enemyY, enemyCount);
+        } else {
+            boolean healthLabels = quality < FrameGovernor.NO_HEALTH_LABELS;
+            for (int i = 0; i < enemyCount; i++) {
+                Enemy.draw(g, enemyX[i], enemyY[i], enemyHealth[i], healthLabels);
+            }
+        }
+
+        for (int i = 0; i < towerCount; i++) {
+            Tower.draw(g, towerX[i], towerY[i], towerColor[i]);
+        }
+
+        int beamStride = quality >= FrameGovernor.SPARSE_BEAMS ? beamCount / FrameGovernor.SPARSE_BEAM_LIMIT + 1 : 1;
+        for (int i = 0; i < beamCount; i += beamStride) {
+            EffectRing.draw(g, beamCoords[i * 4], beamCoords[i * 4 + 1], beamCoords[i * 4 + 2], beamCoords[i * 4 + 3], beamColor[i]);
+        }
+
+        for (int i = 0; i < projectileCount; i++) {
+            ProjectileSystem.draw(g, projectileX[i], projectileY[i], projectileKind[i]);
+        }
+
+        if (heatmapLayer >= 0 && heatmapMax > 0) {
+            for (int cell = 0; cell < heatmap.length; cell++) {
+                if (heatmap[cell] > 0) {
+                    g.setColor(HEAT_COLORS[(int) ((long) heatmap[cell] * (HEAT_COLORS.length - 1) / heatmapMax)]);
+                    g.fillRect(cell % heatmapColumns * MapGrid.CELL_SIZE, cell / heatmapColumns * MapGrid.CELL_SIZE,
+                            MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
                 }
-                if (GamePanel.getPlayerGold() >= 200) {
-                    gamePanel.upgradeTower(tower, new AutoTower(tower.getX(), tower.getY()));
-                    GamePanel.incrementGold(-200);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Not enough gold!");
+            }
+        }
+
+        g.setColor(Color.BLACK);
+        g.drawString("Health: " + playerHealth, 10, 10);
+        g.drawString("Wave: " + waveCounter, 10, 25);
+        g.drawString("Gold: " + playerGold, 10, 40);
+        if (heatmapLayer >= 0) {
+            g.drawString("Heatmap: " + Telemetry.LAYER_NAMES[heatmapLayer] + " (H to cycle)", 200, 10);
+        }
+        if (quality > FrameGovernor.FULL) {
+            g.drawString("Quality: " + FrameGovernor.LEVEL_NAMES[quality], 200, 25);
+        }
+    }
+}
+
+class FrameGovernor {
+    public static final int FULL = 0;
+    public static final int NO_HEALTH_LABELS = 1;
+    public static final int SPARSE_BEAMS = 2;
+    public static final int POINT_ENEMIES = 3;
+    public static final int HALF_RATE = 4;
+    public static final int QUARTER_RATE = 5;
+    public static final String[] LEVEL_NAMES = {
+            "Full", "No health labels", "Sparse beams", "Point enemies", "Half frame rate", "Quarter frame rate"};
+    public static final int SPARSE_BEAM_LIMIT = 128;
+
+    private static final double SMOOTHING = 0.2;
+    private static final int DEGRADE_FRAMES = 8;
+    private static final int RESTORE_FRAMES = 120;
+    private static final int MAX_RESTORE_FRAMES = RESTORE_FRAMES * 16;
+
+    private final long budgetNanos;
+    private double averageNanos;
+    private int level = FULL;
+    private int overBudget;
+    private int underBudget;
+    private int restoreFrames = RESTORE_FRAMES;
+    private int framesSinceRestore = Integer.MAX_VALUE;
+
+    public FrameGovernor(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public boolean record(long frameNanos) {
+        averageNanos += (frameNanos - averageNanos) * SMOOTHING;
+        if (framesSinceRestore < RESTORE_FRAMES && ++framesSinceRestore == RESTORE_FRAMES) {
+            restoreFrames = RESTORE_FRAMES;
+        }
+
+        if (averageNanos > budgetNanos) {
+            underBudget = 0;
+            if (++overBudget >= DEGRADE_FRAMES && level < QUARTER_RATE) {
+                // Falling back right after a restore means the cheaper level was what kept us in budget,
+                // so wait longer before trying the more expensive one again.
+                if (framesSinceRestore < RESTORE_FRAMES) {
+                    restoreFrames = Math.min(restoreFrames * 2, MAX_RESTORE_FRAMES);
                 }
-            });
+                framesSinceRestore = Integer.MAX_VALUE;
+                level++;
+                overBudget = 0;
+                return true;
+            }
+        } else {
+            overBudget = 0;
+            if (averageNanos < budgetNanos / 2 && ++underBudget >= restoreFrames && level > FULL) {
+                level--;
+                underBudget = 0;
+                framesSinceRestore = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int repaintDelay(int frameMillis) {
+        if (level >= QUARTER_RATE) {
+            return frameMillis * 4;
+        }
+        return level >= HALF_RATE ? frameMillis * 2 : frameMillis;
+    }
+}
+
+class TowerSelectionPanel extends JPanel {
+    private boolean isSellMode = false;
+
+    public TowerSelectionPanel(GamePanel gamePanel) {
+        setPreferredSize(new Dimension(600, 600));
+        setBackground(Color.LIGHT_GRAY);
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+
+        JLabel title = new JLabel("Select Tower");
+        title.setFont(new Font("Arial", Font.BOLD, 24));
+        title.setAlignmentX(CENTER_ALIGNMENT);
+
+        add(title);
+        add(Box.createRigidArea(new Dimension(0, 20)));
+
+        addTowerRow(gamePanel, "Sell Tower", "for 15 Gold", Color.RED, null, e -> {
+            isSellMode = true;
+            gamePanel.setUpgradeMode(null);
+            gamePanel.setSellMode(true);
+        });
+
+        addTowerRow(gamePanel, "Normal Tower", "25 Gold", Color.BLUE, () -> new Tower(0, 0), e -> {
+            isSellMode = false;
+            gamePanel.setUpgradeMode(null);
+            gamePanel.setSellMode(false);
+            gamePanel.setSelectedTowerSupplier(() -> new Tower(0, 0));
+        });
+
+        addTowerRow(gamePanel, "Upgrade to Sniper Tower", "200 Gold", Color.CYAN, null, e -> {
+            if (isSellMode) return;
+            gamePanel.setUpgradeMode(SniperTower::upgradeFrom);
+        });
+
+        addTowerRow(gamePanel, "Upgrade to Auto Tower", "200 Gold", Color.GRAY, null, e -> {
+            if (isSellMode) return;
+            gamePanel.setUpgradeMode(AutoTower::upgradeFrom);
         });
 
         addTowerRow(gamePanel, "DoT Tower", "50 Gold", Color.MAGENTA, () -> new DoTTower(0, 0), e -> {
@@ -349,32 +1150,31 @@ class TowerSelectionPanel extends JPanel {
 
         addTowerRow(gamePanel, "Upgrade to DoT Permanent Increase", "300 Gold", Color.ORANGE, null, e -> {
             if (isSellMode) return;
-            gamePanel.setUpgradeMode((Tower tower) -> {
-                if (tower instanceof PermanentDoTTower || tower instanceof SpreadDoTTower) {
-                    return;
-                }
-                if (GamePanel.getPlayerGold() >= 300) {
-                    gamePanel.upgradeTower(tower, new PermanentDoTTower(tower.getX(), tower.getY()));
-                    GamePanel.incrementGold(-300);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Not enough gold!");
-                }
-            });
+            gamePanel.setUpgradeMode(PermanentDoTTower::upgradeFrom);
         });
 
         addTowerRow(gamePanel, "Upgrade to DoT Spread", "300 Gold", Color.PINK, null, e -> {
             if (isSellMode) return;
-            gamePanel.setUpgradeMode((Tower tower) -> {
-                if (tower instanceof PermanentDoTTower || tower instanceof SpreadDoTTower) {
-                    return;
-                }
-                if (GamePanel.getPlayerGold() >= 300) {
-                    gamePanel.upgradeTower(tower, new SpreadDoTTower(tower.getX(), tower.getY()));
-                    GamePanel.incrementGold(-300);
-                } else {
-                    JOptionPane.showMessageDialog(this, "Not enough gold!");
-                }
-            });
+            gamePanel.setUpgradeMode(SpreadDoTTower::upgradeFrom);
+        });
+
+        addTowerRow(gamePanel, "Mortar Tower", "100 Gold", Color.BLACK, () -> new MortarTower(0, 0), e -> {
+            isSellMode = false;
+            gamePanel.setUpgradeMode(null);
+            gamePanel.setSellMode(false);
+            gamePanel.setSelectedTowerSupplier(() -> new MortarTower(0, 0));
+        });
+
+        addTowerRow(gamePanel, "Missile Tower", "150 Gold", Color.WHITE, () -> new MissileTower(0, 0), e -> {
+            isSellMode = false;
+            gamePanel.setUpgradeMode(null);
+            gamePanel.setSellMode(false);
+            gamePanel.setSelectedTowerSupplier(() -> new MissileTower(0, 0));
+        });
+
+        addTowerRow(gamePanel, "Suggest Placement", "Advisor", Color.YELLOW, null, e -> {
+            gamePanel.setUpgradeMode(null);
+            gamePanel.requestSuggestion();
         });
     }
 
@@ -420,7 +1220,7 @@ class TowerSelectionPanel extends JPanel {
         row.add(selectButton);
 
         add(row);
-        add(Box.createRigidArea(new Dimension(0, 20)));
+        add(Box.createRigidArea(new Dimension(0, 10)));
     }
 }
 
@@ -468,6 +1268,9 @@ class MapGrid {
     }
 
     public boolean isPlacable(int x, int y) {
+        if (x < 0 || y < 0 || x >= cols || y >= rows) {
+            return false;
+        }
         return grid[y][x] == 0;
     }
 
@@ -475,6 +1278,14 @@ class MapGrid {
         return pathPoints;
     }
 
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
     public void draw(Graphics g) {
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
@@ -488,13 +1299,28 @@ class MapGrid {
 
 
 class Enemy {
+    public static final int FIXED_SHIFT = 16;
+    public static final int FIXED_ONE = 1 << FIXED_SHIFT;
+
     private double x, y;
-    private int health, goldDrop;
+    private int health, maxHealth, goldDrop;
     private float speed;
     private final List<Point> pathPoints;
     private int currentPathIndex;
     private double progressToNextPoint;
-    private final List<DoT> dotEffects = new ArrayList<>();
+    private boolean fixedPoint;
+    private int fixedX, fixedY, fixedProgress, fixedSpeed;
+    private final DoTEffects dotEffects = new DoTEffects();
+    private Telemetry telemetry;
+    private long clock;
+    private long dotDue = Long.MAX_VALUE;
+    private int generation;
+    private int killVersion;
+    private boolean dying;
+    private boolean killStale;
+    private int lastHitPathIndex;
+    private int pendingDoTDamage;
+    private int pendingHitDamage;
 
     public Enemy(int startX, int startY, MapGrid map) {
         this.x = startX;
@@ -506,26 +1332,66 @@ class Enemy {
 
     public void setAttributes(int health, float speed, int goldDrop) {
         this.health = health;
+        this.maxHealth = health;
         this.speed = speed;
+        this.fixedSpeed = Math.round(speed * FIXED_ONE / 100f);
         this.goldDrop = goldDrop;
     }
 
-    public void addDoT(int damage, int duration) {
-        dotEffects.add(new DoT(damage, duration));
+    public void setFixedPoint(boolean fixedPoint) {
+        this.fixedPoint = fixedPoint;
     }
 
-    public void addPermanentDoT(int initialDamage) {
-        dotEffects.add(new PermanentDoT(initialDamage));
+    public boolean isFixedPoint() {
+        return fixedPoint;
     }
 
-    public void move() {
-        Iterator<DoT> iterator = dotEffects.iterator();
-        while (iterator.hasNext()) {
-            DoT dot = iterator.next();
-            if (dot.apply(this)) {
-                iterator.remove();
-            }
+    public void setTelemetry(Telemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public void reset() {
+        Point start = pathPoints.get(0);
+        this.x = start.x;
+        this.y = start.y;
+        this.health = maxHealth;
+        this.currentPathIndex = 0;
+        this.progressToNextPoint = 0;
+        this.fixedX = start.x << FIXED_SHIFT;
+        this.fixedY = start.y << FIXED_SHIFT;
+        this.fixedProgress = 0;
+        this.pendingDoTDamage = 0;
+        this.pendingHitDamage = 0;
+        this.lastHitPathIndex = -1;
+        this.generation++;
+        this.dying = false;
+        this.killStale = false;
+        this.dotDue = Long.MAX_VALUE;
+        dotEffects.clear();
+    }
+
+    public void addDoT(int damage, int duration, long now, int sourceCell) {
+        advance(now / GameSimulation.TICK_MILLIS);
+        dotEffects.add(damage, 0, GameSimulation.ticksFor(duration) / DoTEffects.PERIOD_TICKS, clock, sourceCell);
+        dotDue = dotEffects.nextDue;
+    }
+
+    public void addPermanentDoT(int initialDamage, long now, int sourceCell) {
+        advance(now / GameSimulation.TICK_MILLIS);
+        dotEffects.add(initialDamage, 1, Integer.MAX_VALUE, clock, sourceCell);
+        dotDue = dotEffects.nextDue;
+    }
+
+    private void advance(long tick) {
+        clock = tick;
+        if (clock >= dotDue) {
+            dotEffects.settle(this, clock);
+            dotDue = dotEffects.nextDue;
         }
+    }
+
+    public void move(long now) {
+        advance(now / GameSimulation.TICK_MILLIS);
 
         if (currentPathIndex >= pathPoints.size() - 1) {
             return;
@@ -534,6 +1400,19 @@ class Enemy {
         Point currentPoint = pathPoints.get(currentPathIndex);
         Point nextPoint = pathPoints.get(currentPathIndex + 1);
 
+        if (fixedPoint) {
+            fixedProgress += fixedSpeed;
+
+            fixedX = (currentPoint.x << FIXED_SHIFT) + (nextPoint.x - currentPoint.x) * fixedProgress;
+            fixedY = (currentPoint.y << FIXED_SHIFT) + (nextPoint.y - currentPoint.y) * fixedProgress;
+
+            if (fixedProgress >= FIXED_ONE) {
+                currentPathIndex++;
+                fixedProgress = 0;
+            }
+            return;
+        }
+
         double targetX = nextPoint.x;
         double targetY = nextPoint.y;
 
@@ -542,391 +1421,2095 @@ class Enemy {
         x = currentPoint.x + (targetX - currentPoint.x) * progressToNextPoint;
         y = currentPoint.y + (targetY - currentPoint.y) * progressToNextPoint;
 
-        if (progressToNextPoint >= 1.0) {
-            currentPathIndex++;
-            progressToNextPoint = 0;
+        if (progressToNextPoint >= 1.0) {
+            currentPathIndex++;
+            progressToNextPoint = 0;
+        }
+    }
+
+    public boolean isAtEnd() {
+        return currentPathIndex >= pathPoints.size() - 1;
+    }
+
+    public int getPathIndex() {
+        return currentPathIndex;
+    }
+
+    public long millisToExit() {
+        if (fixedPoint) {
+            long remaining = ((long) (pathPoints.size() - 1 - currentPathIndex) << FIXED_SHIFT) - fixedProgress;
+            return remaining / fixedSpeed * GameSimulation.TICK_MILLIS;
+        }
+        double remaining = pathPoints.size() - 1 - currentPathIndex - progressToNextPoint;
+        return (long) (remaining / (speed / 100.0) * GameSimulation.TICK_MILLIS);
+    }
+
+    public int projectedDoTDamage(long now, long horizon) {
+        return (int) Math.min(dotEffects.projectedDamage(now + horizon), Integer.MAX_VALUE);
+    }
+
+    public long predictKillTick() {
+        int current = getHealth();
+        if (current <= 0) {
+            return clock;
+        }
+        // A kill after the enemy leaks never needs scheduling; the extra period absorbs rounding in millisToExit.
+        long exitTick = clock + millisToExit() / GameSimulation.TICK_MILLIS + DoTEffects.PERIOD_TICKS;
+        return dotEffects.killTick(current, exitTick);
+    }
+
+    public boolean hasDoT() {
+        return dotEffects.count > 0;
+    }
+
+    public static void draw(Graphics g, double x, double y, int health, boolean healthLabel) {
+        g.setColor(Color.RED);
+        g.fillOval((int) (x * MapGrid.CELL_SIZE), (int) (y * MapGrid.CELL_SIZE), MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+        if (!healthLabel) {
+            return;
+        }
+
+        g.setColor(Color.BLACK);
+        FontMetrics fm = g.getFontMetrics();
+        String healthText = String.valueOf(health);
+        int textWidth = fm.stringWidth(healthText);
+        int textHeight = fm.getAscent();
+        int centerX = (int) (x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2 - textWidth / 2);
+        int centerY = (int) (y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2 + textHeight / 2);
+        g.drawString(healthText, centerX, centerY);
+    }
+
+    public static void drawPoints(Graphics g, double[] xs, double[] ys, int count) {
+        g.setColor(Color.RED);
+        for (int i = 0; i < count; i++) {
+            g.fillRect((int) ((xs[i] + 0.5) * MapGrid.CELL_SIZE) - 3, (int) ((ys[i] + 0.5) * MapGrid.CELL_SIZE) - 3, 6, 6);
+        }
+    }
+
+    public int getX() {
+        return fixedPoint ? fixedX >> FIXED_SHIFT : (int) x;
+    }
+
+    public int getY() {
+        return fixedPoint ? fixedY >> FIXED_SHIFT : (int) y;
+    }
+
+    public double getExactX() {
+        return fixedPoint ? (double) fixedX / FIXED_ONE : x;
+    }
+
+    public double getExactY() {
+        return fixedPoint ? (double) fixedY / FIXED_ONE : y;
+    }
+
+    public int getFixedX() {
+        return fixedX;
+    }
+
+    public int getFixedY() {
+        return fixedY;
+    }
+
+    public int getHealth() {
+        return health;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getKillVersion() {
+        return killVersion;
+    }
+
+    public int nextKillVersion() {
+        return ++killVersion;
+    }
+
+    public boolean isDying() {
+        return dying;
+    }
+
+    public void markDying() {
+        dying = true;
+    }
+
+    public boolean isKillStale() {
+        return killStale;
+    }
+
+    public void markKillStale() {
+        killStale = true;
+    }
+
+    public void clearKillStale() {
+        killStale = false;
+    }
+
+    public int getGoldDrop() {
+        return goldDrop;
+    }
+
+    public void reduceHealth(int amount) {
+        this.health -= amount;
+        this.lastHitPathIndex = currentPathIndex;
+    }
+
+    public int getLastHitPathIndex() {
+        return lastHitPathIndex;
+    }
+
+    public int getPendingDoTDamage() {
+        return pendingDoTDamage;
+    }
+
+    public void setPendingDoTDamage(int pendingDoTDamage) {
+        this.pendingDoTDamage = pendingDoTDamage;
+    }
+
+    public int getPendingHitDamage() {
+        return pendingHitDamage;
+    }
+
+    public void addPendingHitDamage(int damage) {
+        pendingHitDamage += damage;
+    }
+
+    public void clearPendingHitDamage() {
+        pendingHitDamage = 0;
+    }
+
+    private static class DoTEffects {
+        private static final int PERIOD_TICKS = GameSimulation.ticksFor(1000);
+        private static final int INITIAL_SLOTS = 16;
+        // Far above any enemy's health, and low enough that adding two saturated sums cannot wrap.
+        private static final long SATURATED = Long.MAX_VALUE / 4;
+
+        private final int[] heads = new int[PERIOD_TICKS];
+        private final long[] dueTick = new long[PERIOD_TICKS];
+        private long phases;
+        private long nextDue = Long.MAX_VALUE;
+
+        private int count;
+        private int used;
+        private int free = -1;
+        private int[] next = new int[INITIAL_SLOTS];
+        private int[] base = new int[INITIAL_SLOTS];
+        private int[] ramp = new int[INITIAL_SLOTS];
+        private int[] applied = new int[INITIAL_SLOTS];
+        private int[] remaining = new int[INITIAL_SLOTS];
+        private int[] sourceCell = new int[INITIAL_SLOTS];
+
+        private boolean projectionValid;
+        private long projectionUntil;
+        private long projection;
+
+        DoTEffects() {
+            Arrays.fill(heads, -1);
+        }
+
+        public void add(int damage, int increase, int applications, long tick, int source) {
+            int slot = allocate();
+            base[slot] = damage;
+            ramp[slot] = increase;
+            applied[slot] = 0;
+            remaining[slot] = applications;
+            sourceCell[slot] = source;
+
+            // Every live effect falls due within one period, so an effect shares its bucket only with
+            // effects that are due on exactly the same tick.
+            int phase = (int) (tick % PERIOD_TICKS);
+            next[slot] = heads[phase];
+            heads[phase] = slot;
+            dueTick[phase] = tick + PERIOD_TICKS;
+            phases |= 1L << phase;
+            nextDue = Math.min(nextDue, dueTick[phase]);
+            count++;
+
+            if (projectionValid) {
+                projection += projected(slot, dueTick[phase], projectionUntil);
+            }
+        }
+
+        public void settle(Enemy enemy, long clock) {
+            long due = Long.MAX_VALUE;
+            for (long bits = phases; bits != 0; bits &= bits - 1) {
+                int phase = Long.numberOfTrailingZeros(bits);
+                long tick = dueTick[phase];
+                if (tick > clock) {
+                    due = Math.min(due, tick);
+                    continue;
+                }
+
+                long periods = (clock - tick) / PERIOD_TICKS + 1;
+                long nextTick = tick + periods * PERIOD_TICKS;
+                int previous = -1;
+                int slot = heads[phase];
+                while (slot != -1) {
+                    int following = next[slot];
+                    if (projectionValid) {
+                        projection -= projected(slot, tick, projectionUntil);
+                    }
+
+                    int reached = (int) Math.min(remaining[slot], periods);
+                    long amount = damageAfter(slot, applied[slot] + reached) - damageAfter(slot, applied[slot]);
+                    int dealt = (int) Math.min(amount, Integer.MAX_VALUE);
+                    enemy.telemetry.recordDamage(sourceCell[slot], dealt, enemy.health, true);
+                    enemy.reduceHealth(dealt);
+                    applied[slot] += reached;
+                    remaining[slot] -= reached;
+
+                    if (remaining[slot] == 0) {
+                        if (previous == -1) {
+                            heads[phase] = following;
+                        } else {
+                            next[previous] = following;
+                        }
+                        release(slot);
+                    } else {
+                        if (projectionValid) {
+                            projection += projected(slot, nextTick, projectionUntil);
+                        }
+                        previous = slot;
+                    }
+                    slot = following;
+                }
+
+                if (heads[phase] == -1) {
+                    phases &= ~(1L << phase);
+                } else {
+                    dueTick[phase] = nextTick;
+                    due = Math.min(due, nextTick);
+                }
+            }
+            nextDue = due;
+        }
+
+        public long projectedDamage(long until) {
+            if (projectionValid && projectionUntil == until) {
+                return projection;
+            }
+            long total = 0;
+            for (long bits = phases; bits != 0; bits &= bits - 1) {
+                int phase = Long.numberOfTrailingZeros(bits);
+                for (int slot = heads[phase]; slot != -1; slot = next[slot]) {
+                    total += projected(slot, dueTick[phase], until);
+                }
+            }
+            projectionValid = true;
+            projectionUntil = until;
+            projection = total;
+            return total;
+        }
+
+        public long killTick(int health, long horizon) {
+            if (count == 0 || damageBy(horizon) < health) {
+                return Long.MAX_VALUE;
+            }
+
+            long low = nextDue;
+            long high = horizon;
+            while (low < high) {
+                long mid = low + (high - low) / 2;
+                if (damageBy(mid) >= health) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        public void clear() {
+            for (long bits = phases; bits != 0; bits &= bits - 1) {
+                heads[Long.numberOfTrailingZeros(bits)] = -1;
+            }
+            phases = 0;
+            nextDue = Long.MAX_VALUE;
+            count = 0;
+            used = 0;
+            free = -1;
+            projectionValid = false;
+        }
+
+        private long damageBy(long tick) {
+            long total = 0;
+            for (long bits = phases; bits != 0; bits &= bits - 1) {
+                int phase = Long.numberOfTrailingZeros(bits);
+                if (dueTick[phase] > tick) {
+                    continue;
+                }
+                long periods = (tick - dueTick[phase]) / PERIOD_TICKS + 1;
+                for (int slot = heads[phase]; slot != -1; slot = next[slot]) {
+                    long reached = Math.min(remaining[slot], periods);
+                    total = Math.min(total + damageAfter(slot, applied[slot] + reached) - damageAfter(slot, applied[slot]),
+                            SATURATED);
+                }
+            }
+            return total;
+        }
+
+        private long projected(int slot, long dueTick, long until) {
+            long horizonTick = until / GameSimulation.TICK_MILLIS;
+            if (horizonTick < dueTick) {
+                return 0;
+            }
+            long reached = Math.min(remaining[slot], (horizonTick - dueTick) / PERIOD_TICKS + 1);
+            return damageAfter(slot, applied[slot] + reached) - damageAfter(slot, applied[slot]);
+        }
+
+        private long damageAfter(int slot, long n) {
+            if ((double) n * base[slot] + ramp[slot] * ((double) n * (n + 1) / 2) >= SATURATED) {
+                return SATURATED;
+            }
+            return n * base[slot] + ramp[slot] * (n * (n + 1) / 2);
+        }
+
+        private int allocate() {
+            if (free != -1) {
+                int slot = free;
+                free = next[slot];
+                return slot;
+            }
+            if (used == base.length) {
+                int capacity = used * 2;
+                next = Arrays.copyOf(next, capacity);
+                base = Arrays.copyOf(base, capacity);
+                ramp = Arrays.copyOf(ramp, capacity);
+                applied = Arrays.copyOf(applied, capacity);
+                remaining = Arrays.copyOf(remaining, capacity);
+                sourceCell = Arrays.copyOf(sourceCell, capacity);
+            }
+            return used++;
+        }
+
+        private void release(int slot) {
+            next[slot] = free;
+            free = slot;
+            count--;
+        }
+    }
+}
+
+
+class Runt extends Enemy {
+    public Runt(int startX, int startY, MapGrid map) {
+        super(startX, startY, map);
+        setAttributes(50, 11, 5);
+    }
+}
+
+class Knight extends Enemy {
+    public Knight(int startX, int startY, MapGrid map) {
+        super(startX, startY, map);
+        setAttributes(200, 6, 10);
+    }
+}
+
+class Brute extends Enemy {
+    public Brute(int startX, int startY, MapGrid map) {
+        super(startX, startY, map);
+        setAttributes(600, 3, 15);
+    }
+}
+
+class EffectRing {
+    private final int capacity;
+    private final int[] startX, startY, endX, endY;
+    private final long[] expireTick;
+    private final Color[] color;
+    private int head;
+    private int count;
+
+    public EffectRing(int capacity) {
+        this.capacity = capacity;
+        this.startX = new int[capacity];
+        this.startY = new int[capacity];
+        this.endX = new int[capacity];
+        this.endY = new int[capacity];
+        this.expireTick = new long[capacity];
+        this.color = new Color[capacity];
+    }
+
+    public void add(int startX, int startY, int endX, int endY, long expireTick, Color color) {
+        if (count == capacity) {
+            head = (head + 1) % capacity;
+            count--;
+        }
+        int slot = (head + count) % capacity;
+        this.startX[slot] = startX;
+        this.startY[slot] = startY;
+        this.endX[slot] = endX;
+        this.endY[slot] = endY;
+        this.expireTick[slot] = expireTick;
+        this.color[slot] = color;
+        count++;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+    }
+
+    public void expire(long tick) {
+        while (count > 0 && expireTick[head] <= tick) {
+            head = (head + 1) % capacity;
+            count--;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int slot(int index) {
+        return (head + index) % capacity;
+    }
+
+    public boolean isActive(int slot, long tick) {
+        return tick < expireTick[slot];
+    }
+
+    public int getStartX(int slot) {
+        return startX[slot];
+    }
+
+    public int getStartY(int slot) {
+        return startY[slot];
+    }
+
+    public int getEndX(int slot) {
+        return endX[slot];
+    }
+
+    public int getEndY(int slot) {
+        return endY[slot];
+    }
+
+    public Color getColor(int slot) {
+        return color[slot];
+    }
+
+    public static void draw(Graphics g, int startX, int startY, int endX, int endY, Color color) {
+        g.setColor(color);
+        g.drawLine(startX, startY, endX, endY);
+    }
+}
+
+class EnemyPool {
+    public static final int RUNT = 0;
+    public static final int KNIGHT = 1;
+    public static final int BRUTE = 2;
+
+    private final MapGrid map;
+    private final boolean fixedPoint;
+    private final Telemetry telemetry;
+    private final List<ArrayDeque<Enemy>> free = List.of(new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>());
+
+    public EnemyPool(MapGrid map, boolean fixedPoint, Telemetry telemetry) {
+        this.map = map;
+        this.fixedPoint = fixedPoint;
+        this.telemetry = telemetry;
+    }
+
+    public Enemy obtain(int type) {
+        Enemy enemy = free.get(type).poll();
+        if (enemy == null) {
+            Point startPoint = map.getPathPoints().get(0);
+            if (type == RUNT) {
+                enemy = new Runt(startPoint.x, startPoint.y, map);
+            } else if (type == KNIGHT) {
+                enemy = new Knight(startPoint.x, startPoint.y, map);
+            } else {
+                enemy = new Brute(startPoint.x, startPoint.y, map);
+            }
+        }
+        enemy.setFixedPoint(fixedPoint);
+        enemy.setTelemetry(telemetry);
+        enemy.reset();
+        return enemy;
+    }
+
+    public void release(Enemy enemy) {
+        free.get(typeOf(enemy)).push(enemy);
+    }
+
+    private static int typeOf(Enemy enemy) {
+        if (enemy instanceof Brute) {
+            return BRUTE;
+        }
+        return enemy instanceof Knight ? KNIGHT : RUNT;
+    }
+}
+
+class EnemyGrid {
+    private final int rows, cols;
+    private final int[] cellStart;
+    private final int[] cellFill;
+    private Enemy[] items = new Enemy[64];
+
+    public EnemyGrid(MapGrid map) {
+        this.rows = map.getRows();
+        this.cols = map.getCols();
+        this.cellStart = new int[rows * cols + 1];
+        this.cellFill = new int[rows * cols];
+    }
+
+    public void build(List<Enemy> enemies) {
+        int count = enemies.size();
+        if (items.length < count) {
+            items = new Enemy[Math.max(count, items.length * 2)];
+        }
+
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < count; i++) {
+            cellStart[cellOf(enemies.get(i)) + 1]++;
+        }
+        for (int cell = 0; cell < rows * cols; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+
+        System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+        for (int i = 0; i < count; i++) {
+            Enemy enemy = enemies.get(i);
+            items[cellFill[cellOf(enemy)]++] = enemy;
+        }
+        Arrays.fill(items, count, items.length, null);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int start(int cellX, int cellY) {
+        return cellStart[cellY * cols + cellX];
+    }
+
+    public int end(int cellX, int cellY) {
+        return cellStart[cellY * cols + cellX + 1];
+    }
+
+    public Enemy get(int index) {
+        return items[index];
+    }
+
+    private int cellOf(Enemy enemy) {
+        int cellX = Math.min(cols - 1, Math.max(0, (int) (enemy.getExactX() + 0.5)));
+        int cellY = Math.min(rows - 1, Math.max(0, (int) (enemy.getExactY() + 0.5)));
+        return cellY * cols + cellX;
+    }
+}
+
+class ProjectileSystem {
+    public static final int SHELL = 0;
+    public static final int MISSILE = 1;
+    private static final double HIT_RADIUS = 0.6;
+
+    private final int capacity;
+    private final float[] x, y, vx, vy, speed;
+    private final int[] kind, damage, sourceCell, ticksLeft, targetGeneration;
+    private final Enemy[] target;
+    private int count;
+
+    public ProjectileSystem(int capacity) {
+        this.capacity = capacity;
+        this.x = new float[capacity];
+        this.y = new float[capacity];
+        this.vx = new float[capacity];
+        this.vy = new float[capacity];
+        this.speed = new float[capacity];
+        this.kind = new int[capacity];
+        this.damage = new int[capacity];
+        this.sourceCell = new int[capacity];
+        this.ticksLeft = new int[capacity];
+        this.targetGeneration = new int[capacity];
+        this.target = new Enemy[capacity];
+    }
+
+    public boolean launch(int kind, float startX, float startY, Enemy target, float speed, int damage, int lifeTicks,
+                          int sourceCell) {
+        if (count == capacity) {
+            return false;
+        }
+
+        int i = count++;
+        this.kind[i] = kind;
+        this.x[i] = startX;
+        this.y[i] = startY;
+        this.speed[i] = speed;
+        this.damage[i] = damage;
+        this.sourceCell[i] = sourceCell;
+        this.ticksLeft[i] = lifeTicks;
+        this.target[i] = kind == MISSILE ? target : null;
+        this.targetGeneration[i] = target.getGeneration();
+        aim(i, target);
+        return true;
+    }
+
+    public void commitPending(DamageLedger ledger) {
+        for (int i = 0; i < count; i++) {
+            if (hasLiveTarget(i)) {
+                ledger.commit(target[i], damage[i]);
+            }
+        }
+    }
+
+    public void update(GameSimulation simulation, EnemyGrid grid) {
+        int i = 0;
+        while (i < count) {
+            if (target[i] != null) {
+                if (hasLiveTarget(i)) {
+                    aim(i, target[i]);
+                } else {
+                    target[i] = null;
+                }
+            }
+
+            float x0 = x[i], y0 = y[i];
+            float x1 = x0 + vx[i], y1 = y0 + vy[i];
+
+            Enemy hit = sweep(grid, x0, y0, x1, y1);
+            if (hit != null) {
+                simulation.damageEnemy(hit, damage[i], sourceCell[i]);
+                if (hit.getHealth() <= 0) {
+                    simulation.killEnemy(hit);
+                }
+                remove(i);
+                continue;
+            }
+
+            x[i] = x1;
+            y[i] = y1;
+            if (--ticksLeft[i] <= 0 || x1 < 0 || y1 < 0 || x1 >= grid.getCols() || y1 >= grid.getRows()) {
+                remove(i);
+                continue;
+            }
+            i++;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(target, 0, count, null);
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public int getKind(int i) {
+        return kind[i];
+    }
+
+    public static void draw(Graphics g, float x, float y, int kind) {
+        g.setColor(kind == MISSILE ? Color.WHITE : Color.BLACK);
+        g.fillOval((int) (x * MapGrid.CELL_SIZE) - 4, (int) (y * MapGrid.CELL_SIZE) - 4, 8, 8);
+    }
+
+    private boolean hasLiveTarget(int i) {
+        Enemy enemy = target[i];
+        return enemy != null && enemy.getGeneration() == targetGeneration[i]
+                && enemy.getHealth() > 0 && !enemy.isAtEnd();
+    }
+
+    private void aim(int i, Enemy enemy) {
+        double dx = enemy.getExactX() + 0.5 - x[i];
+        double dy = enemy.getExactY() + 0.5 - y[i];
+        double length = Math.sqrt(dx * dx + dy * dy);
+        if (length > 0) {
+            vx[i] = (float) (dx / length * speed[i]);
+            vy[i] = (float) (dy / length * speed[i]);
+        }
+    }
+
+    // Tests the whole segment travelled this tick, so fast projectiles cannot skip over an enemy.
+    private Enemy sweep(EnemyGrid grid, float x0, float y0, float x1, float y1) {
+        int minX = Math.max(0, (int) Math.floor(Math.min(x0, x1) - HIT_RADIUS));
+        int maxX = Math.min(grid.getCols() - 1, (int) Math.floor(Math.max(x0, x1) + HIT_RADIUS));
+        int minY = Math.max(0, (int) Math.floor(Math.min(y0, y1) - HIT_RADIUS));
+        int maxY = Math.min(grid.getRows() - 1, (int) Math.floor(Math.max(y0, y1) + HIT_RADIUS));
+
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+
+        Enemy closest = null;
+        double closestT = Double.MAX_VALUE;
+        for (int cellY = minY; cellY <= maxY; cellY++) {
+            for (int cellX = minX; cellX <= maxX; cellX++) {
+                int end = grid.end(cellX, cellY);
+                for (int j = grid.start(cellX, cellY); j < end; j++) {
+                    Enemy enemy = grid.get(j);
+                    if (enemy.getHealth() <= 0) {
+                        continue;
+                    }
+
+                    double cx = enemy.getExactX() + 0.5 - x0;
+                    double cy = enemy.getExactY() + 0.5 - y0;
+                    double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (cx * dx + cy * dy) / lengthSquared)) : 0;
+                    double ox = cx - t * dx;
+                    double oy = cy - t * dy;
+                    if (ox * ox + oy * oy <= HIT_RADIUS * HIT_RADIUS && t < closestT) {
+                        closest = enemy;
+                        closestT = t;
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+
+    private void remove(int i) {
+        count--;
+        x[i] = x[count];
+        y[i] = y[count];
+        vx[i] = vx[count];
+        vy[i] = vy[count];
+        speed[i] = speed[count];
+        kind[i] = kind[count];
+        damage[i] = damage[count];
+        sourceCell[i] = sourceCell[count];
+        ticksLeft[i] = ticksLeft[count];
+        targetGeneration[i] = targetGeneration[count];
+        target[i] = target[count];
+        target[count] = null;
+    }
+}
+
+class Telemetry {
+    public static final int DWELL = 0;
+    public static final int DAMAGE = 1;
+    public static final int OVERKILL = 2;
+    public static final int DOT = 3;
+    public static final String[] LAYER_NAMES = {"Dwell", "Damage", "Overkill", "DoT"};
+
+    private static final int MAGIC = 0x5444434C;
+    private static final int VERSION = 2;
+
+    private final int rows, cols;
+    private final int[][] layers;
+    // Slot 0 counts enemies that leaked without ever being hit; slot i + 1 counts those last hit at path index i.
+    private final int[] leaks;
+
+    public Telemetry(MapGrid map) {
+        this.rows = map.getRows();
+        this.cols = map.getCols();
+        this.layers = new int[LAYER_NAMES.length][rows * cols];
+        this.leaks = new int[map.getPathPoints().size() + 1];
+    }
+
+    public void recordDwell(Enemy enemy) {
+        int x = enemy.getX();
+        int y = enemy.getY();
+        if (x >= 0 && y >= 0 && x < cols && y < rows) {
+            layers[DWELL][y * cols + x]++;
+        }
+    }
+
+    public void recordDamage(int sourceCell, int amount, int healthBefore, boolean dot) {
+        int dealt = Math.max(0, Math.min(amount, healthBefore));
+        layers[DAMAGE][sourceCell] += dealt;
+        layers[OVERKILL][sourceCell] += amount - dealt;
+        if (dot) {
+            layers[DOT][sourceCell] += dealt;
+        }
+    }
+
+    public void recordLeak(Enemy enemy) {
+        leaks[enemy.getLastHitPathIndex() + 1]++;
+    }
+
+    public int[] getLayer(int layer) {
+        return layers[layer];
+    }
+
+    public void reset() {
+        for (int[] layer : layers) {
+            Arrays.fill(layer, 0);
+        }
+        Arrays.fill(leaks, 0);
+    }
+
+    public Telemetry copy(MapGrid map) {
+        Telemetry copy = new Telemetry(map);
+        for (int i = 0; i < layers.length; i++) {
+            System.arraycopy(layers[i], 0, copy.layers[i], 0, layers[i].length);
+        }
+        System.arraycopy(leaks, 0, copy.leaks, 0, leaks.length);
+        return copy;
+    }
+
+    public void export(Path file, int wave) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(wave);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(layers.length + 1);
+            for (int i = 0; i < layers.length; i++) {
+                writeColumn(out, LAYER_NAMES[i], layers[i]);
+            }
+            writeColumn(out, "Leaks", leaks);
+        }
+    }
+
+    private static void writeColumn(DataOutputStream out, String name, int[] values) throws IOException {
+        out.writeUTF(name);
+        out.writeInt(values.length);
+        for (int value : values) {
+            int v = value;
+            while ((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+    }
+}
+
+class KillSchedule {
+    private long[] ticks = new long[64];
+    private Enemy[] enemies = new Enemy[64];
+    private int[] generations = new int[64];
+    private int[] versions = new int[64];
+    private int size;
+
+    public void schedule(Enemy enemy, long tick) {
+        int version = enemy.nextKillVersion();
+        if (tick == Long.MAX_VALUE) {
+            return;
+        }
+        if (size == ticks.length) {
+            int capacity = size * 2;
+            ticks = Arrays.copyOf(ticks, capacity);
+            enemies = Arrays.copyOf(enemies, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+        }
+
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (ticks[parent] <= tick) {
+                break;
+            }
+            set(i, ticks[parent], enemies[parent], generations[parent], versions[parent]);
+            i = parent;
+        }
+        set(i, tick, enemy, enemy.getGeneration(), version);
+    }
+
+    public Enemy pollBefore(long tick) {
+        while (size > 0 && ticks[0] < tick) {
+            Enemy enemy = enemies[0];
+            boolean current = generations[0] == enemy.getGeneration() && versions[0] == enemy.getKillVersion();
+            removeRoot();
+            if (current) {
+                return enemy;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(enemies, 0, size, null);
+        size = 0;
+    }
+
+    private void removeRoot() {
+        int last = --size;
+        long tick = ticks[last];
+        Enemy enemy = enemies[last];
+        int generation = generations[last];
+        int version = versions[last];
+        enemies[last] = null;
+
+        int i = 0;
+        while (true) {
+            int child = i * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && ticks[child + 1] < ticks[child]) {
+                child++;
+            }
+            if (ticks[child] >= tick) {
+                break;
+            }
+            set(i, ticks[child], enemies[child], generations[child], versions[child]);
+            i = child;
+        }
+        if (i < size) {
+            set(i, tick, enemy, generation, version);
+        }
+    }
+
+    private void set(int i, long tick, Enemy enemy, int generation, int version) {
+        ticks[i] = tick;
+        enemies[i] = enemy;
+        generations[i] = generation;
+        versions[i] = version;
+    }
+}
+
+class DamageLedger {
+    private long now;
+
+    public void beginTick(List<Enemy> enemies, long now) {
+        this.now = now;
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy enemy = enemies.get(i);
+            enemy.clearPendingHitDamage();
+            refresh(enemy);
+        }
+    }
+
+    public void refresh(Enemy enemy) {
+        enemy.setPendingDoTDamage(enemy.projectedDoTDamage(now, enemy.millisToExit()));
+    }
+
+    public void commit(Enemy enemy, int damage) {
+        enemy.addPendingHitDamage(damage);
+    }
+
+    public boolean isDoomed(Enemy enemy) {
+        return enemy.getHealth() - enemy.getPendingDoTDamage() - enemy.getPendingHitDamage() <= 0;
+    }
+}
+
+class Tower {
+    protected int x, y;
+    protected int range;
+    protected int damage;
+    protected long cooldown;
+    protected int cost;
+    protected long lastAttackTime = Long.MIN_VALUE / 2;
+
+    public Tower(int x, int y) {
+        this.x = x;
+        this.y = y;
+        this.range = 2;
+        this.damage = 10;
+        this.cooldown = 500;
+        this.cost = 25;
+    }
+
+    public void setPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public int getRange() {
+        return range;
+    }
+
+    public int getDamage() {
+        return damage;
+    }
+
+    public long getCooldown() {
+        return cooldown;
+    }
+
+    public boolean isReady(long currentTime) {
+        return currentTime - lastAttackTime >= cooldown;
+    }
+
+    public Enemy planAttack(GameSimulation simulation) {
+        if (!isReady(simulation.currentTime())) {
+            return null;
+        }
+        return findTarget(simulation.getEnemies(), simulation.getLedger());
+    }
+
+    public void resolveAttack(GameSimulation simulation, Enemy plannedTarget) {
+        long currentTime = simulation.currentTime();
+
+        if (isReady(currentTime)) {
+            Enemy target = plannedTarget;
+            if (target != null && simulation.getLedger().isDoomed(target)) {
+                target = findTarget(simulation.getEnemies(), simulation.getLedger());
+            }
+
+            if (target != null) {
+                hit(target, simulation);
+
+                lastAttackTime = currentTime;
+
+                showShot(target, simulation);
+            }
+        }
+    }
+
+    protected void showShot(Enemy target, GameSimulation simulation) {
+        int startX = x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+        int startY = y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+        int endX = target.getX() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+        int endY = target.getY() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+
+        simulation.addBeam(startX, startY, endX, endY);
+    }
+
+    protected Enemy findTarget(List<Enemy> enemies, DamageLedger ledger) {
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy enemy = enemies.get(i);
+            if (ledger.isDoomed(enemy)) {
+                continue;
+            }
+
+            if (inRange(enemy)) {
+                return enemy;
+            }
+        }
+        return null;
+    }
+
+    protected boolean inRange(Enemy enemy) {
+        if (enemy.isFixedPoint()) {
+            long dx = enemy.getFixedX() - ((long) x << Enemy.FIXED_SHIFT);
+            long dy = enemy.getFixedY() - ((long) y << Enemy.FIXED_SHIFT);
+            long reach = (long) range << Enemy.FIXED_SHIFT;
+            return dx * dx + dy * dy <= reach * reach;
+        }
+
+        int dx = enemy.getX() - x;
+        int dy = enemy.getY() - y;
+        return dx * dx + dy * dy <= range * range;
+    }
+
+    protected void hit(Enemy enemy, GameSimulation simulation) {
+        simulation.damageEnemy(enemy, damage, cell(simulation));
+        killIfDead(enemy, simulation);
+    }
+
+    protected int cell(GameSimulation simulation) {
+        return y * simulation.getMap().getCols() + x;
+    }
+
+    protected void killIfDead(Enemy enemy, GameSimulation simulation) {
+        if (enemy.getHealth() <= 0) {
+            simulation.killEnemy(enemy);
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public Color getColor() {
+        return Color.BLUE;
+    }
+
+    public static void draw(Graphics g, int x, int y, Color color) {
+        g.setColor(color);
+        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+    }
+}
+
+class SniperTower extends Tower {
+    public SniperTower(int x, int y) {
+        super(x, y);
+        this.range = 6;
+        this.damage = 5000;
+        this.cooldown = 8000;
+        this.cost = 200;
+    }
+
+    public static Tower upgradeFrom(Tower tower) {
+        if (tower instanceof SniperTower || tower instanceof AutoTower) {
+            return null;
+        }
+        return new SniperTower(tower.getX(), tower.getY());
+    }
+
+    @Override
+    public Color getColor() {
+        return Color.CYAN;
+    }
+}
+
+class AutoTower extends Tower {
+    public AutoTower(int x, int y) {
+        super(x, y);
+        this.range = 2;
+        this.damage = 10;
+        this.cooldown = 50;
+        this.cost = 200;
+    }
+
+    public static Tower upgradeFrom(Tower tower) {
+        if (tower instanceof SniperTower || tower instanceof AutoTower) {
+            return null;
+        }
+        return new AutoTower(tower.getX(), tower.getY());
+    }
+
+    @Override
+    public Color getColor() {
+        return Color.GRAY;
+    }
+}
+
+class DoTTower extends Tower {
+    public DoTTower(int x, int y) {
+        super(x, y);
+        this.damage = 5;
+        this.cooldown = 500;
+        this.cost = 50;
+    }
+
+    @Override
+    protected void hit(Enemy enemy, GameSimulation simulation) {
+        simulation.damageEnemy(enemy, damage, cell(simulation));
+
+        simulation.addDoT(enemy, damage / 5, 10000, cell(simulation));
+
+        killIfDead(enemy, simulation);
+    }
+
+    @Override
+    public Color getColor() {
+        return Color.MAGENTA;
+    }
+}
+
+class PermanentDoTTower extends Tower {
+    public PermanentDoTTower(int x, int y) {
+        super(x, y);
+        this.damage = 5;
+        this.cooldown = 500;
+        this.cost = 300;
+    }
+
+    public static Tower upgradeFrom(Tower tower) {
+        if (tower instanceof PermanentDoTTower || tower instanceof SpreadDoTTower) {
+            return null;
+        }
+        return new PermanentDoTTower(tower.getX(), tower.getY());
+    }
+
+    @Override
+    protected void hit(Enemy enemy, GameSimulation simulation) {
+        simulation.damageEnemy(enemy, damage, cell(simulation));
+
+        simulation.addPermanentDoT(enemy, damage / 5, cell(simulation));
+
+        killIfDead(enemy, simulation);
+    }
+
+    @Override
+    public Color getColor() {
+        return Color.ORANGE;
+    }
+}
+
+class SpreadDoTTower extends Tower {
+    public SpreadDoTTower(int x, int y) {
+        super(x, y);
+        this.damage = 10;
+        this.cooldown = 500;
+        this.cost = 300;
+    }
+
+    public static Tower upgradeFrom(Tower tower) {
+        if (tower instanceof PermanentDoTTower || tower instanceof SpreadDoTTower) {
+            return null;
+        }
+        return new SpreadDoTTower(tower.getX(), tower.getY());
+    }
+
+    @Override
+    protected void hit(Enemy enemy, GameSimulation simulation) {
+        simulation.addDoT(enemy, 10, 10000, cell(simulation));
+
+        List<Enemy> enemies = simulation.getEnemies();
+        for (int i = 0; i < enemies.size(); i++) {
+            Enemy e = enemies.get(i);
+            if (e != enemy && e.getY() == enemy.getY()) {
+                simulation.addDoT(e, damage / 2, 10000, cell(simulation));
+            }
+        }
+    }
+
+    @Override
+    public Color getColor() {
+        return Color.PINK;
+    }
+}
+
+class MortarTower extends Tower {
+    private static final float SHELL_SPEED = 0.12f;
+
+    public MortarTower(int x, int y) {
+        super(x, y);
+        this.range = 4;
+        this.damage = 80;
+        this.cooldown = 2000;
+        this.cost = 100;
+    }
+
+    @Override
+    protected void hit(Enemy enemy, GameSimulation simulation) {
+        int lifeTicks = (int) Math.ceil(range * 1.5 / SHELL_SPEED);
+        simulation.getProjectiles().launch(ProjectileSystem.SHELL, x + 0.5f, y + 0.5f, enemy, SHELL_SPEED, damage, lifeTicks,
+                cell(simulation));
+    }
+
+    @Override
+    protected void showShot(Enemy target, GameSimulation simulation) {
+    }
+
+    @Override
+    public Color getColor() {
+        return Color.BLACK;
+    }
+}
+
+class MissileTower extends Tower {
+    private static final float MISSILE_SPEED = 0.35f;
+
+    public MissileTower(int x, int y) {
+        super(x, y);
+        this.range = 6;
+        this.damage = 60;
+        this.cooldown = 1200;
+        this.cost = 150;
+    }
+
+    @Override
+    protected void hit(Enemy enemy, GameSimulation simulation) {
+        if (simulation.getProjectiles().launch(ProjectileSystem.MISSILE, x + 0.5f, y + 0.5f, enemy, MISSILE_SPEED, damage,
+                GameSimulation.ticksFor(3000), cell(simulation))) {
+            simulation.getLedger().commit(enemy, damage);
         }
     }
 
-    public boolean isAtEnd() {
-        return currentPathIndex >= pathPoints.size() - 1;
+    @Override
+    protected void showShot(Enemy target, GameSimulation simulation) {
     }
 
-    public void draw(Graphics g) {
-        g.setColor(Color.RED);
-        g.fillOval((int) (x * MapGrid.CELL_SIZE), (int) (y * MapGrid.CELL_SIZE), MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
-
-        g.setColor(Color.BLACK);
-        FontMetrics fm = g.getFontMetrics();
-        String healthText = String.valueOf(health);
-        int textWidth = fm.stringWidth(healthText);
-        int textHeight = fm.getAscent();
-        int centerX = (int) (x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2 - textWidth / 2);
-        int centerY = (int) (y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2 + textHeight / 2);
-        g.drawString(healthText, centerX, centerY);
+    @Override
+    public Color getColor() {
+        return Color.WHITE;
     }
+}
 
-    public int getX() {
-        return (int) x;
+class TowerDefenseEnv {
+    public static final int NO_OP = 0;
+    public static final int LEAK_PENALTY = 10;
+
+    private final GameSimulation simulation;
+    private final MapGrid map;
+    private final int cells;
+    private final int actionCount;
+    private final int[] placementCosts = new int[TowerKinds.PLACEMENTS.length];
+    private final int ticksPerStep;
+    private final long maxTicks;
+    private final ByteBuffer observations;
+    private final int offset;
+    private final int towerOffset;
+    private final int densityOffset;
+    private final int statsOffset;
+    private long seed;
+
+    public TowerDefenseEnv(long seed, int ticksPerStep, long maxTicks, ByteBuffer observations, int offset) {
+        this.map = new MapGrid(15, 20);
+        this.simulation = new GameSimulation(map, seed, true);
+        this.simulation.setParallelAttacks(false);
+        this.cells = map.getRows() * map.getCols();
+        this.actionCount = actionCount(map);
+        for (int i = 0; i < placementCosts.length; i++) {
+            placementCosts[i] = TowerKinds.create(TowerKinds.PLACEMENTS[i], 0, 0).getCost();
+        }
+        this.ticksPerStep = ticksPerStep;
+        this.maxTicks = maxTicks;
+        this.observations = observations;
+        this.offset = offset;
+        this.towerOffset = offset + cells;
+        this.densityOffset = towerOffset + cells;
+        this.statsOffset = densityOffset + map.getPathPoints().size() * 2;
+        this.seed = seed;
+
+        for (int cell = 0; cell < cells; cell++) {
+            observations.put(offset + cell, (byte) (map.isPlacable(cell % map.getCols(), cell / map.getCols()) ? 0 : 1));
+        }
+        writeObservation();
     }
 
-    public int getY() {
-        return (int) y;
+    public static int observationSize(MapGrid map) {
+        return map.getRows() * map.getCols() * 2 + map.getPathPoints().size() * 2 + 3 * Integer.BYTES;
     }
 
-    public int getHealth() {
-        return health;
+    public static int actionCount(MapGrid map) {
+        return 1 + (TowerKinds.PLACEMENTS.length + TowerKinds.UPGRADES.length + 1) * map.getRows() * map.getCols();
     }
 
-    public int getGoldDrop() {
-        return goldDrop;
+    public void checkAction(int action) {
+        if (action < 0 || action >= actionCount) {
+            throw new IllegalArgumentException("Action " + action + " is outside [0, " + actionCount + ")");
+        }
     }
 
-    public void reduceHealth(int amount) {
-        this.health -= amount;
+    public void reset(long seed) {
+        this.seed = seed;
+        simulation.reset(seed);
+        writeObservation();
     }
 
-    private static class DoT {
-        protected int damagePerTick;
-        protected final long endTime;
-        protected long lastTickTime;
+    public float step(int action, boolean[] dones, int index) {
+        checkAction(action);
+        applyAction(action);
 
-        public DoT(int damage, int duration) {
-            this.damagePerTick = damage;
-            this.endTime = System.currentTimeMillis() + duration;
-            this.lastTickTime = System.currentTimeMillis();
+        int killed = simulation.getEnemiesKilled();
+        int leaked = simulation.getEnemiesLeaked();
+        for (int i = 0; i < ticksPerStep && !simulation.isGameOver(); i++) {
+            simulation.tick();
         }
+        float reward = (simulation.getEnemiesKilled() - killed) - LEAK_PENALTY * (simulation.getEnemiesLeaked() - leaked);
 
-        public boolean apply(Enemy enemy) {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime >= lastTickTime + 1000) {
-                enemy.reduceHealth(damagePerTick);
-                lastTickTime = currentTime;
-            }
-            return currentTime >= endTime;
+        boolean done = simulation.isGameOver() || simulation.currentTick() >= maxTicks;
+        dones[index] = done;
+        if (done) {
+            reset(seed * 6364136223846793005L + 1442695040888963407L);
+        } else {
+            writeObservation();
         }
+        return reward;
     }
 
-    private static class PermanentDoT extends DoT {
-        private int damageIncrease;
+    public GameSimulation getSimulation() {
+        return simulation;
+    }
 
-        public PermanentDoT(int damage) {
-            super(damage, Integer.MAX_VALUE);
-            this.damageIncrease = 1;
+    private void applyAction(int action) {
+        if (action == NO_OP) {
+            return;
         }
 
-        @Override
-        public boolean apply(Enemy enemy) {
-            long currentTime = System.currentTimeMillis();
+        int kind = (action - 1) / cells;
+        int cell = (action - 1) % cells;
+        int x = cell % map.getCols();
+        int y = cell / map.getCols();
 
-            if (currentTime >= lastTickTime + 1000) {
-                enemy.reduceHealth(damagePerTick + damageIncrease);
-                damageIncrease++;
-                lastTickTime = currentTime;
+        if (kind < TowerKinds.PLACEMENTS.length) {
+            // Exploring agents mostly pick placements that fail, so rule those out before allocating a tower.
+            if (map.isPlacable(x, y) && !simulation.isTowerAtPosition(x, y) && simulation.getPlayerGold() >= placementCosts[kind]) {
+                simulation.placeTower(x, y, TowerKinds.create(TowerKinds.PLACEMENTS[kind], x, y));
             }
-
-            return false;
+        } else if (kind < TowerKinds.PLACEMENTS.length + TowerKinds.UPGRADES.length) {
+            simulation.upgradeTower(x, y, TowerKinds.upgradeRule(TowerKinds.UPGRADES[kind - TowerKinds.PLACEMENTS.length]));
+        } else {
+            simulation.sellTower(x, y);
         }
     }
-}
 
+    private void writeObservation() {
+        for (int cell = 0; cell < cells; cell++) {
+            observations.put(towerOffset + cell, (byte) 0);
+        }
+        List<Tower> towers = simulation.getTowers();
+        for (int i = 0; i < towers.size(); i++) {
+            Tower tower = towers.get(i);
+            observations.put(towerOffset + tower.getY() * map.getCols() + tower.getX(), (byte) TowerKinds.kindOf(tower));
+        }
 
-class Runt extends Enemy {
-    public Runt(int startX, int startY, MapGrid map) {
-        super(startX, startY, map);
-        setAttributes(50, 11, 5);
-    }
-}
+        int pathLength = map.getPathPoints().size();
+        for (int i = 0; i < pathLength; i++) {
+            observations.putShort(densityOffset + i * 2, (short) 0);
+        }
+        List<Enemy> enemies = simulation.getEnemies();
+        for (int i = 0; i < enemies.size(); i++) {
+            int slot = densityOffset + enemies.get(i).getPathIndex() * 2;
+            observations.putShort(slot, (short) (observations.getShort(slot) + 1));
+        }
 
-class Knight extends Enemy {
-    public Knight(int startX, int startY, MapGrid map) {
-        super(startX, startY, map);
-        setAttributes(200, 6, 10);
+        observations.putInt(statsOffset, simulation.getPlayerGold());
+        observations.putInt(statsOffset + Integer.BYTES, simulation.getPlayerHealth());
+        observations.putInt(statsOffset + Integer.BYTES * 2, simulation.getWaveCounter());
     }
 }
 
-class Brute extends Enemy {
-    public Brute(int startX, int startY, MapGrid map) {
-        super(startX, startY, map);
-        setAttributes(600, 3, 15);
+class TowerKinds {
+    public static final int BASIC = 1;
+    public static final int DOT = 2;
+    public static final int MORTAR = 3;
+    public static final int MISSILE = 4;
+    public static final int SNIPER = 5;
+    public static final int AUTO = 6;
+    public static final int PERMANENT_DOT = 7;
+    public static final int SPREAD_DOT = 8;
+
+    public static final int[] PLACEMENTS = {BASIC, DOT, MORTAR, MISSILE};
+    public static final int[] UPGRADES = {SNIPER, AUTO, PERMANENT_DOT, SPREAD_DOT};
+
+    private static final List<Function<Tower, Tower>> UPGRADE_RULES = List.of(
+            SniperTower::upgradeFrom,
+            AutoTower::upgradeFrom,
+            PermanentDoTTower::upgradeFrom,
+            SpreadDoTTower::upgradeFrom);
+
+    public static Tower create(int kind, int x, int y) {
+        switch (kind) {
+            case DOT: return new DoTTower(x, y);
+            case MORTAR: return new MortarTower(x, y);
+            case MISSILE: return new MissileTower(x, y);
+            case SNIPER: return new SniperTower(x, y);
+            case AUTO: return new AutoTower(x, y);
+            case PERMANENT_DOT: return new PermanentDoTTower(x, y);
+            case SPREAD_DOT: return new SpreadDoTTower(x, y);
+            default: return new Tower(x, y);
+        }
     }
-}
 
-class Beam {
-    private final int startX, startY;
-    private final int endX, endY;
-    private final long endTime;
+    public static Function<Tower, Tower> upgradeRule(int kind) {
+        return UPGRADE_RULES.get(kind - SNIPER);
+    }
 
-    public Beam(int startX, int startY, int endX, int endY, long duration) {
-        this.startX = startX;
-        this.startY = startY;
-        this.endX = endX;
-        this.endY = endY;
-        this.endTime = System.currentTimeMillis() + duration;
+    public static boolean isUpgrade(int kind) {
+        return kind >= SNIPER;
     }
 
-    public boolean isActive() {
-        return System.currentTimeMillis() < endTime;
+    public static String name(int kind) {
+        switch (kind) {
+            case DOT: return "DoT Tower";
+            case MORTAR: return "Mortar Tower";
+            case MISSILE: return "Missile Tower";
+            case SNIPER: return "Sniper Tower";
+            case AUTO: return "Auto Tower";
+            case PERMANENT_DOT: return "DoT Permanent Increase";
+            case SPREAD_DOT: return "DoT Spread";
+            default: return "Normal Tower";
+        }
     }
 
-    public void draw(Graphics g) {
-        g.setColor(Color.RED);
-        g.drawLine(startX, startY, endX, endY);
+    public static int kindOf(Tower tower) {
+        if (tower instanceof DoTTower) return DOT;
+        if (tower instanceof MortarTower) return MORTAR;
+        if (tower instanceof MissileTower) return MISSILE;
+        if (tower instanceof SniperTower) return SNIPER;
+        if (tower instanceof AutoTower) return AUTO;
+        if (tower instanceof PermanentDoTTower) return PERMANENT_DOT;
+        if (tower instanceof SpreadDoTTower) return SPREAD_DOT;
+        return BASIC;
     }
 }
 
-class Tower {
-    protected int x, y;
-    protected int range;
-    protected int damage;
-    protected long cooldown;
-    protected int cost;
-    protected long lastAttackTime = 0;
-
-    public Tower(int x, int y) {
-        this.x = x;
-        this.y = y;
-        this.range = 2;
-        this.damage = 10;
-        this.cooldown = 500;
-        this.cost = 25;
-    }
+class VectorTowerDefenseEnv implements AutoCloseable {
+    private final TowerDefenseEnv[] envs;
+    private final ByteBuffer observations;
+    private final int observationSize;
+    private final float[] rewards;
+    private final boolean[] dones;
+    private final Worker[] workers;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int partitionSize;
+    private volatile long generation;
+    private volatile boolean closed;
+    private Thread caller;
+    private int[] actions;
+
+    public VectorTowerDefenseEnv(int count, long seed, int ticksPerStep, long maxTicks, int threads) {
+        MapGrid layout = new MapGrid(15, 20);
+        this.observationSize = TowerDefenseEnv.observationSize(layout);
+        this.observations = ByteBuffer.allocateDirect(count * observationSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.rewards = new float[count];
+        this.dones = new boolean[count];
+        this.envs = new TowerDefenseEnv[count];
+        for (int i = 0; i < count; i++) {
+            envs[i] = new TowerDefenseEnv(seed + i, ticksPerStep, maxTicks, observations, i * observationSize);
+        }
 
-    public void setPosition(int x, int y) {
-        this.x = x;
-        this.y = y;
+        int partitions = Math.max(1, Math.min(threads, count));
+        this.partitionSize = (count + partitions - 1) / partitions;
+        this.workers = new Worker[partitions - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker((i + 1) * partitionSize, Math.min(count, (i + 2) * partitionSize));
+            workers[i].start();
+        }
     }
 
-    public int getCost() {
-        return cost;
+    public void reset(long seed) {
+        for (int i = 0; i < envs.length; i++) {
+            envs[i].reset(seed + i);
+            rewards[i] = 0;
+            dones[i] = false;
+        }
     }
 
-    public void attack(List<Enemy> enemies, List<Beam> beams) {
-        long currentTime = System.currentTimeMillis();
-
-        if (currentTime - lastAttackTime >= cooldown) {
-            Iterator<Enemy> enemyIterator = enemies.iterator();
-
-            while (enemyIterator.hasNext()) {
-                Enemy enemy = enemyIterator.next();
-                double distance = Math.sqrt(Math.pow(enemy.getX() - x, 2) + Math.pow(enemy.getY() - y, 2));
-
-                if (distance <= range) {
-                    enemy.reduceHealth(damage);
-
-                    if (enemy.getHealth() <= 0) {
-                        GamePanel.incrementGold(enemy.getGoldDrop());
-                        enemyIterator.remove();
-                    }
-
-                    lastAttackTime = currentTime;
+    public void step(int[] actions) {
+        // Workers cannot report a bad action without stalling the batch, so every action is checked up front.
+        for (int i = 0; i < envs.length; i++) {
+            envs[i].checkAction(actions[i]);
+        }
+        this.actions = actions;
+        this.caller = Thread.currentThread();
+        pending.set(workers.length);
+        generation++;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
 
-                    int startX = x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int startY = y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endX = enemy.getX() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endY = enemy.getY() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+        stepRange(0, Math.min(envs.length, partitionSize));
 
-                    beams.add(new Beam(startX, startY, endX, endY, 100));
-                    break;
-                }
-            }
+        while (pending.get() != 0) {
+            LockSupport.park(this);
         }
     }
 
-    public int getX() {
-        return x;
+    public ByteBuffer observations() {
+        return observations;
     }
 
-    public int getY() {
-        return y;
+    public int observationSize() {
+        return observationSize;
     }
 
-    public void draw(Graphics g) {
-        g.setColor(Color.BLUE);
-        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+    public float[] rewards() {
+        return rewards;
     }
-}
 
-class SniperTower extends Tower {
-    public SniperTower(int x, int y) {
-        super(x, y);
-        this.range = 6;
-        this.damage = 5000;
-        this.cooldown = 8000;
-        this.cost = 200;
+    public boolean[] dones() {
+        return dones;
+    }
+
+    public int size() {
+        return envs.length;
     }
 
     @Override
-    public void draw(Graphics g) {
-        g.setColor(Color.CYAN);
-        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+    public void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
     }
-}
 
-class AutoTower extends Tower {
-    public AutoTower(int x, int y) {
-        super(x, y);
-        this.range = 2;
-        this.damage = 10;
-        this.cooldown = 50;
-        this.cost = 200;
+    private void stepRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            rewards[i] = envs[i].step(actions[i], dones, i);
+        }
     }
 
-    @Override
-    public void draw(Graphics g) {
-        g.setColor(Color.GRAY);
-        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+    private class Worker extends Thread {
+        private final int from, to;
+
+        Worker(int from, int to) {
+            super("env-worker-" + from);
+            this.from = from;
+            this.to = to;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long seen = 0;
+            while (true) {
+                while (generation == seen) {
+                    if (closed) {
+                        return;
+                    }
+                    LockSupport.park(this);
+                }
+                seen = generation;
+
+                stepRange(from, to);
+
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
     }
 }
 
-class DoTTower extends Tower {
-    public DoTTower(int x, int y) {
-        super(x, y);
-        this.damage = 5;
-        this.cooldown = 500;
-        this.cost = 50;
+class PlacementAdvisor {
+    private static final int CANDIDATES_PER_LAYOUT = 12;
+    private static final int BEAM_WIDTH = 3;
+    private static final int MAX_DEPTH = 3;
+    private static final long EVALUATION_TICKS = 20000;
+    private static final long EVALUATION_SEED = 1;
+
+    private final MapGrid map;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final Map<Long, Integer> outcomes = new ConcurrentHashMap<>();
+    private final ThreadLocal<GameSimulation> simulations;
+    private final double[][] coverage = new double[TowerKinds.SPREAD_DOT + 1][];
+    private int outcomesWave = -1;
+
+    public PlacementAdvisor(MapGrid map, boolean fixedPoint) {
+        this.map = map;
+        this.simulations = ThreadLocal.withInitial(() -> {
+            GameSimulation simulation = new GameSimulation(map, EVALUATION_SEED, fixedPoint);
+            simulation.setParallelAttacks(false);
+            return simulation;
+        });
+        for (int kind = TowerKinds.BASIC; kind <= TowerKinds.SPREAD_DOT; kind++) {
+            coverage[kind] = new double[map.getRows() * map.getCols()];
+            for (int y = 0; y < map.getRows(); y++) {
+                for (int x = 0; x < map.getCols(); x++) {
+                    coverage[kind][y * map.getCols() + x] = coverage(TowerKinds.create(kind, x, y));
+                }
+            }
+        }
     }
 
-    @Override
-    public void attack(List<Enemy> enemies, List<Beam> beams) {
-        long currentTime = System.currentTimeMillis();
+    public static Layout capture(GameSimulation simulation) {
+        List<Tower> towers = simulation.getTowers();
+        int[] kinds = new int[towers.size()];
+        int[] xs = new int[towers.size()];
+        int[] ys = new int[towers.size()];
+        for (int i = 0; i < towers.size(); i++) {
+            kinds[i] = TowerKinds.kindOf(towers.get(i));
+            xs[i] = towers.get(i).getX();
+            ys[i] = towers.get(i).getY();
+        }
+        int wave = simulation.getWaveCounter() + 1;
+        return new Layout(kinds, xs, ys, simulation.getPlayerGold(), wave, simulation.isRandomWave(wave), List.of());
+    }
 
-        if (currentTime - lastAttackTime >= cooldown) {
-            Iterator<Enemy> enemyIterator = enemies.iterator();
+    public List<Move> suggest(Layout start, long budgetMillis) {
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        // Layouts from earlier waves are never scored again.
+        if (start.wave != outcomesWave) {
+            outcomes.clear();
+            outcomesWave = start.wave;
+        }
+        List<Layout> beam = List.of(start);
+        Layout best = start;
+        double bestScore = score(start);
+
+        for (int depth = 0; depth < MAX_DEPTH && System.currentTimeMillis() < deadline; depth++) {
+            List<Layout> children = new ArrayList<>();
+            for (Layout layout : beam) {
+                children.addAll(expand(layout));
+            }
+            if (children.isEmpty()) {
+                break;
+            }
 
-            while (enemyIterator.hasNext()) {
-                Enemy enemy = enemyIterator.next();
-                double distance = Math.sqrt(Math.pow(enemy.getX() - x, 2) + Math.pow(enemy.getY() - y, 2));
+            double[] scores = pool.submit(() -> children.parallelStream()
+                    .mapToDouble(child -> System.currentTimeMillis() < deadline ? score(child) : Double.NEGATIVE_INFINITY)
+                    .toArray()).join();
 
-                if (distance <= range) {
-                    enemy.reduceHealth(damage);
+            Integer[] order = new Integer[children.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
 
-                    enemy.addDoT(damage / 5, 10000);
+            List<Layout> next = new ArrayList<>();
+            for (int i = 0; i < order.length && next.size() < BEAM_WIDTH; i++) {
+                if (scores[order[i]] == Double.NEGATIVE_INFINITY) {
+                    break;
+                }
+                next.add(children.get(order[i]));
+            }
+            if (next.isEmpty()) {
+                break;
+            }
+            if (scores[order[0]] > bestScore) {
+                bestScore = scores[order[0]];
+                best = next.get(0);
+            }
+            beam = next;
+        }
 
-                    if (enemy.getHealth() <= 0) {
-                        GamePanel.incrementGold(enemy.getGoldDrop());
-                        enemyIterator.remove();
-                    }
+        return best.moves;
+    }
 
-                    lastAttackTime = currentTime;
+    private List<Layout> expand(Layout layout) {
+        List<Layout> children = new ArrayList<>();
 
-                    int startX = x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int startY = y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endX = enemy.getX() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endY = enemy.getY() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+        for (int i = 0; i < layout.kinds.length; i++) {
+            Tower existing = TowerKinds.create(layout.kinds[i], layout.xs[i], layout.ys[i]);
+            for (int kind : TowerKinds.UPGRADES) {
+                Tower upgraded = TowerKinds.upgradeRule(kind).apply(existing);
+                if (upgraded != null && upgraded.getCost() <= layout.gold) {
+                    children.add(layout.with(new Move(kind, layout.xs[i], layout.ys[i]), upgraded.getCost()));
+                }
+            }
+        }
 
-                    beams.add(new Beam(startX, startY, endX, endY, 100));
-                    break;
+        List<Move> placements = new ArrayList<>();
+        for (int kind : TowerKinds.PLACEMENTS) {
+            int cost = TowerKinds.create(kind, 0, 0).getCost();
+            if (cost > layout.gold) {
+                continue;
+            }
+            for (int y = 0; y < map.getRows(); y++) {
+                for (int x = 0; x < map.getCols(); x++) {
+                    if (map.isPlacable(x, y) && !layout.occupies(x, y) && coverage[kind][y * map.getCols() + x] > 0) {
+                        placements.add(new Move(kind, x, y));
+                    }
                 }
             }
         }
+        placements.sort(Comparator.comparingDouble((Move move) -> -coverage[move.kind][move.y * map.getCols() + move.x]));
+        for (int i = 0; i < placements.size() && i < CANDIDATES_PER_LAYOUT; i++) {
+            Move move = placements.get(i);
+            children.add(layout.with(move, TowerKinds.create(move.kind, 0, 0).getCost()));
+        }
+
+        return children;
     }
 
-    @Override
-    public void draw(Graphics g) {
-        g.setColor(Color.MAGENTA);
-        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+    private double score(Layout layout) {
+        Integer outcome = outcomes.get(layout.hash);
+        if (outcome == null) {
+            outcome = simulate(layout);
+            outcomes.put(layout.hash, outcome);
+        }
+        return outcome + layout.gold / 100.0;
     }
-}
 
-class PermanentDoTTower extends Tower {
-    public PermanentDoTTower(int x, int y) {
-        super(x, y);
-        this.damage = 5;
-        this.cooldown = 500;
-        this.cost = 300;
+    private int simulate(Layout layout) {
+        GameSimulation simulation = simulations.get();
+        simulation.reset(EVALUATION_SEED);
+        simulation.setPlayerGold(Integer.MAX_VALUE);
+        for (int i = 0; i < layout.kinds.length; i++) {
+            simulation.placeTower(layout.xs[i], layout.ys[i], TowerKinds.create(layout.kinds[i], 0, 0));
+        }
+        simulation.setPlayerGold(layout.gold);
+        simulation.skipToWave(layout.wave);
+
+        int wave = simulation.getWaveCounter();
+        for (long i = 0; i < EVALUATION_TICKS && simulation.getWaveCounter() == wave && !simulation.isGameOver(); i++) {
+            simulation.tick();
+        }
+        return simulation.getEnemiesKilled() * 10 - simulation.getEnemiesLeaked() * 1000;
     }
 
-    @Override
-    public void attack(List<Enemy> enemies, List<Beam> beams) {
-        long currentTime = System.currentTimeMillis();
+    private double coverage(Tower tower) {
+        List<Point> path = map.getPathPoints();
+        int covered = 0;
+        for (Point point : path) {
+            int dx = point.x - tower.getX();
+            int dy = point.y - tower.getY();
+            if (dx * dx + dy * dy <= tower.getRange() * tower.getRange()) {
+                covered++;
+            }
+        }
+        return covered * (double) Math.max(tower.getDamage(), 1) / tower.getCooldown() / tower.getCost();
+    }
 
-        if (currentTime - lastAttackTime >= cooldown) {
-            Iterator<Enemy> enemyIterator = enemies.iterator();
+    public static class Move {
+        final int kind, x, y;
 
-            while (enemyIterator.hasNext()) {
-                Enemy enemy = enemyIterator.next();
-                double distance = Math.sqrt(Math.pow(enemy.getX() - x, 2) + Math.pow(enemy.getY() - y, 2));
+        Move(int kind, int x, int y) {
+            this.kind = kind;
+            this.x = x;
+            this.y = y;
+        }
 
-                if (distance <= range) {
-                    enemy.reduceHealth(damage);
+        public int getX() {
+            return x;
+        }
 
-                    enemy.addPermanentDoT(damage / 5);
+        public int getY() {
+            return y;
+        }
 
-                    if (enemy.getHealth() <= 0) {
-                        GamePanel.incrementGold(enemy.getGoldDrop());
-                        enemyIterator.remove();
-                    }
+        public String describe() {
+            return (TowerKinds.isUpgrade(kind) ? "Upgrade to " : "Place ") + TowerKinds.name(kind) + " at (" + x + ", " + y + ")";
+        }
+    }
 
-                    lastAttackTime = currentTime;
+    public static class Layout {
+        final int[] kinds, xs, ys;
+        final int gold, wave;
+        // Endless waves are drawn from the game's own random state, which cannot be replayed, so those layouts are
+        // scored against the wave EVALUATION_SEED produces instead.
+        final boolean sampleWave;
+        final List<Move> moves;
+        final long hash;
+
+        Layout(int[] kinds, int[] xs, int[] ys, int gold, int wave, boolean sampleWave, List<Move> moves) {
+            this.kinds = kinds;
+            this.xs = xs;
+            this.ys = ys;
+            this.gold = gold;
+            this.wave = wave;
+            this.sampleWave = sampleWave;
+            this.moves = moves;
+
+            long h = wave * 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < kinds.length; i++) {
+                h += mix(((long) kinds[i] << 32) | ((long) xs[i] << 16) | ys[i]);
+            }
+            this.hash = h;
+        }
 
-                    int startX = x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int startY = y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endX = enemy.getX() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endY = enemy.getY() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+        public boolean isSampleWave() {
+            return sampleWave;
+        }
 
-                    beams.add(new Beam(startX, startY, endX, endY, 100));
-                    break;
+        boolean occupies(int x, int y) {
+            for (int i = 0; i < kinds.length; i++) {
+                if (xs[i] == x && ys[i] == y) {
+                    return true;
                 }
             }
+            return false;
         }
-    }
 
-    @Override
-    public void draw(Graphics g) {
-        g.setColor(Color.ORANGE);
-        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
-    }
-}
+        Layout with(Move move, int cost) {
+            List<Move> nextMoves = new ArrayList<>(moves);
+            nextMoves.add(move);
 
-class SpreadDoTTower extends Tower {
-    public SpreadDoTTower(int x, int y) {
-        super(x, y);
-        this.damage = 10;
-        this.cooldown = 500;
-        this.cost = 300;
-    }
+            for (int i = 0; i < kinds.length; i++) {
+                if (xs[i] == move.x && ys[i] == move.y) {
+                    int[] nextKinds = kinds.clone();
+                    nextKinds[i] = move.kind;
+                    return new Layout(nextKinds, xs, ys, gold - cost, wave, sampleWave, nextMoves);
+                }
+            }
 
-    @Override
-    public void attack(List<Enemy> enemies, List<Beam> beams) {
-        long currentTime = System.currentTimeMillis();
+            int[] nextKinds = Arrays.copyOf(kinds, kinds.length + 1);
+            int[] nextXs = Arrays.copyOf(xs, xs.length + 1);
+            int[] nextYs = Arrays.copyOf(ys, ys.length + 1);
+            nextKinds[kinds.length] = move.kind;
+            nextXs[xs.length] = move.x;
+            nextYs[ys.length] = move.y;
+            return new Layout(nextKinds, nextXs, nextYs, gold - cost, wave, sampleWave, nextMoves);
+        }
 
-        if (currentTime - lastAttackTime >= cooldown) {
-            Iterator<Enemy> enemyIterator = enemies.iterator();
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
 
-            while (enemyIterator.hasNext()) {
-                Enemy enemy = enemyIterator.next();
-                double distance = Math.sqrt(Math.pow(enemy.getX() - x, 2) + Math.pow(enemy.getY() - y, 2));
+@Name("towerdefense.Wave")
+@Label("Wave")
+@Category("Tower Defense")
+@Description("Spans a wave from the moment it is queued until the next wave starts")
+@StackTrace(false)
+class WaveEvent extends Event {
+    @Label("Wave")
+    int wave;
+    @Label("Random Wave")
+    boolean random;
+    @Label("Queued Enemies")
+    int queued;
+    @Label("Ticks")
+    long ticks;
+    @Label("Kills")
+    int kills;
+    @Label("Leaks")
+    int leaks;
+    @Label("Towers")
+    int towers;
+    @Label("Health At Start")
+    int startHealth;
+    @Label("Health At End")
+    int endHealth;
+    @Label("Gold")
+    int gold;
+
+    transient long startTick;
+    transient int startKills;
+    transient int startLeaks;
+}
 
-                if (distance <= range) {
-                    enemy.addDoT(10, 10000);
+@Name("towerdefense.SlowTick")
+@Label("Slow Tick")
+@Category("Tower Defense")
+@Description("A simulation tick that ran longer than its threshold, with a breakdown by phase")
+@Threshold("16 ms")
+@StackTrace(false)
+class SlowTickEvent extends Event {
+    @Label("Tick")
+    long tick;
+    @Label("Wave")
+    int wave;
+    @Label("Enemies")
+    int enemies;
+    @Label("Towers")
+    int towers;
+    @Label("Projectiles")
+    int projectiles;
+    @Label("Commands")
+    @Timespan
+    long commandTime;
+    @Label("Movement")
+    @Timespan
+    long movementTime;
+    @Label("Attacks")
+    @Timespan
+    long attackTime;
+    @Label("Projectiles Update")
+    @Timespan
+    long projectileTime;
+
+    private transient long mark;
+
+    long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - mark;
+        mark = now;
+        return elapsed;
+    }
+}
 
-                    for (Enemy e : enemies) {
-                        if (e != enemy && e.getY() == enemy.getY()) {
-                            e.addDoT(damage / 2, 10000);
-                        }
-                    }
+@Name("towerdefense.SpawnBurst")
+@Label("Spawn Burst")
+@Category("Tower Defense")
+@Description("Spans the spawning of a wave from its first enemy to its last")
+@StackTrace(false)
+class SpawnBurstEvent extends Event {
+    @Label("Wave")
+    int wave;
+    @Label("Spawned")
+    int spawned;
+    @Label("Runts")
+    int runts;
+    @Label("Knights")
+    int knights;
+    @Label("Brutes")
+    int brutes;
+    @Label("Enemies Alive")
+    int enemies;
+}
 
-                    lastAttackTime = currentTime;
+@Name("towerdefense.TowerChange")
+@Label("Tower Change")
+@Category("Tower Defense")
+@StackTrace(false)
+class TowerChangeEvent extends Event {
+    @Label("Action")
+    String action;
+    @Label("Kind")
+    String kind;
+    @Label("X")
+    int x;
+    @Label("Y")
+    int y;
+    @Label("Cost")
+    int cost;
+    @Label("Towers")
+    int towers;
+    @Label("Gold")
+    int gold;
+}
 
-                    int startX = x * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int startY = y * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endX = enemy.getX() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
-                    int endY = enemy.getY() * MapGrid.CELL_SIZE + MapGrid.CELL_SIZE / 2;
+@Name("towerdefense.MassKill")
+@Label("Mass Kill")
+@Category("Tower Defense")
+@Description("A tick in which at least " + MassKillEvent.MIN_KILLS + " enemies died")
+@StackTrace(false)
+class MassKillEvent extends Event {
+    public static final int MIN_KILLS = 3;
+
+    @Label("Tick")
+    long tick;
+    @Label("Wave")
+    int wave;
+    @Label("Kills")
+    int kills;
+    @Label("Enemies Remaining")
+    int remaining;
+    @Label("Projectiles")
+    int projectiles;
+}
 
-                    beams.add(new Beam(startX, startY, endX, endY, 100));
-                    break;
+class SoakScenario {
+    private static final int STARTING_BONUS = 2000;
+    private static final int STARTING_BUILDS = 60;
+    private static final int WAVE_BONUS = 150;
+    private static final int BUILDS_PER_WAVE = 3;
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 120;
+        Path output = Paths.get(args.length > 1 ? args[1] : "soak.jfr");
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        MapGrid map = new MapGrid(15, 20);
+        GameSimulation simulation = new GameSimulation(map, seed);
+        Random random = new Random(seed);
+        int firstRandomWave = 22;
+        int restarts = 0;
+        long ticks = 0;
+
+        try (Recording recording = new Recording(Configuration.getConfiguration("profile"))) {
+            recording.setName("Tower Defense soak");
+            recording.start();
+
+            simulation.skipToWave(firstRandomWave);
+            fortify(simulation, map, random);
+            int wave = simulation.getWaveCounter();
+            long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+
+            while (System.nanoTime() < deadline) {
+                simulation.tick();
+                ticks++;
+
+                if (simulation.isGameOver()) {
+                    restarts++;
+                    simulation.reset(random.nextLong());
+                    simulation.skipToWave(firstRandomWave);
+                    fortify(simulation, map, random);
+                    wave = simulation.getWaveCounter();
+                } else if (simulation.getWaveCounter() != wave) {
+                    wave = simulation.getWaveCounter();
+                    simulation.incrementGold(WAVE_BONUS);
+                    for (int i = 0; i < BUILDS_PER_WAVE; i++) {
+                        build(simulation, map, random);
+                    }
                 }
             }
+
+            recording.stop();
+            recording.dump(output);
         }
-    }
 
-    @Override
-    public void draw(Graphics g) {
-        g.setColor(Color.PINK);
-        g.fillRect(x * MapGrid.CELL_SIZE, y * MapGrid.CELL_SIZE, MapGrid.CELL_SIZE, MapGrid.CELL_SIZE);
+        System.out.printf("soak: %d ticks, reached wave %d, %d restarts, recording written to %s%n",
+                ticks, simulation.getWaveCounter(), restarts, output.toAbsolutePath());
     }
-}
 
+    private static void fortify(GameSimulation simulation, MapGrid map, Random random) {
+        simulation.incrementGold(STARTING_BONUS);
+        for (int i = 0; i < STARTING_BUILDS; i++) {
+            build(simulation, map, random);
+        }
+    }
 
+    private static void build(GameSimulation simulation, MapGrid map, Random random) {
+        int x = random.nextInt(map.getCols());
+        int y = random.nextInt(map.getRows());
+        if (!map.isPlacable(x, y)) {
+            return;
+        }
 
+        if (random.nextInt(4) == 0) {
+            int kind = TowerKinds.UPGRADES[random.nextInt(TowerKinds.UPGRADES.length)];
+            simulation.upgradeTower(x, y, TowerKinds.upgradeRule(kind));
+        } else {
+            int kind = TowerKinds.PLACEMENTS[random.nextInt(TowerKinds.PLACEMENTS.length)];
+            simulation.placeTower(x, y, TowerKinds.create(kind, x, y));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class DamageLedgerTest {
+    private final MapGrid map = new MapGrid(15, 20);
+    private final EnemyPool pool = new EnemyPool(map, false, new Telemetry(map));
+
+    @Test
+    void projectedDoTDamageMatchesDamageDealt() {
+        Enemy enemy = pool.obtain(EnemyPool.BRUTE);
+        enemy.move(0);
+        enemy.addDoT(10, 10000, 0, 0);
+        enemy.addDoT(5, 10000, 0, 0);
+        for (long tick = 1; tick <= 20; tick++) {
+            enemy.move(tick * GameSimulation.TICK_MILLIS);
+        }
+        long now = 20 * GameSimulation.TICK_MILLIS;
+        enemy.addPermanentDoT(1, now, 0);
+
+        long horizon = 30000;
+        int projected = enemy.projectedDoTDamage(now, horizon);
+        int healthBefore = enemy.getHealth();
+        for (long time = now + GameSimulation.TICK_MILLIS; time <= now + horizon; time += GameSimulation.TICK_MILLIS) {
+            enemy.move(time);
+        }
+
+        assertEquals(healthBefore - enemy.getHealth(), projected);
+    }
+
+    @Test
+    void tenSecondDoTProjectsNineApplications() {
+        Enemy enemy = pool.obtain(EnemyPool.BRUTE);
+        enemy.move(0);
+        enemy.addDoT(10, 10000, 0, 0);
+
+        assertEquals(90, enemy.projectedDoTDamage(0, 60000));
+    }
+
+    @Test
+    void survivableDoTStacksDoNotDoomTheEnemy() {
+        Enemy knight = pool.obtain(EnemyPool.KNIGHT);
+        knight.move(0);
+        knight.addDoT(10, 10000, 0, 0);
+        knight.addDoT(10, 10000, 0, 0);
+
+        DamageLedger ledger = new DamageLedger();
+        ledger.beginTick(List.of(knight), 0);
+
+        assertEquals(180, knight.getPendingDoTDamage());
+        assertFalse(ledger.isDoomed(knight));
+    }
+}
@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DoTKillTest {
+    private final MapGrid map = new MapGrid(15, 20);
+    private final EnemyPool pool = new EnemyPool(map, false, new Telemetry(map));
+
+    private static long millis(long tick) {
+        return tick * GameSimulation.TICK_MILLIS;
+    }
+
+    private static long stepUntilDead(Enemy enemy, long tick) {
+        while (enemy.getHealth() > 0) {
+            tick++;
+            enemy.move(millis(tick));
+        }
+        return tick;
+    }
+
+    @Test
+    @Timeout(10)
+    void permanentStacksDieOnThePredictedTick() {
+        for (int stacks = 1; stacks <= 10; stacks++) {
+            Enemy enemy = pool.obtain(EnemyPool.BRUTE);
+            enemy.move(0);
+            for (int i = 0; i < stacks; i++) {
+                enemy.addPermanentDoT(1, millis(i * 20L), 0);
+                enemy.move(millis(i * 20L));
+            }
+            long tick = (stacks - 1) * 20L;
+
+            long predicted = enemy.predictKillTick();
+
+            assertNotEquals(Long.MAX_VALUE, predicted, stacks + " stacks");
+            assertEquals(stepUntilDead(enemy, tick), predicted, stacks + " stacks");
+            pool.release(enemy);
+        }
+    }
+
+    @Test
+    void mixedStacksDieOnThePredictedTick() {
+        Enemy enemy = pool.obtain(EnemyPool.KNIGHT);
+        enemy.move(0);
+        enemy.addDoT(10, 10000, 0, 0);
+        enemy.move(millis(20));
+        enemy.addPermanentDoT(3, millis(20), 0);
+        enemy.move(millis(45));
+        enemy.addDoT(5, 5000, millis(45), 0);
+
+        long predicted = enemy.predictKillTick();
+
+        assertNotEquals(Long.MAX_VALUE, predicted);
+        assertEquals(stepUntilDead(enemy, 45), predicted);
+    }
+
+    @Test
+    void directDamageBringsTheKillForward() {
+        Enemy enemy = pool.obtain(EnemyPool.BRUTE);
+        enemy.move(0);
+        enemy.addPermanentDoT(5, 0, 0);
+        long before = enemy.predictKillTick();
+        for (long tick = 1; tick <= 100; tick++) {
+            enemy.move(millis(tick));
+        }
+
+        enemy.reduceHealth(300);
+        long after = enemy.predictKillTick();
+
+        assertNotEquals(Long.MAX_VALUE, before);
+        assertEquals(stepUntilDead(enemy, 100), after);
+        assertTrue(after < before);
+    }
+
+    @Test
+    void timedStacksThatCannotKillAreNeverScheduled() {
+        Enemy enemy = pool.obtain(EnemyPool.BRUTE);
+        enemy.move(0);
+        enemy.addDoT(10, 10000, 0, 0);
+
+        assertEquals(Long.MAX_VALUE, enemy.predictKillTick());
+    }
+
+    @Test
+    void scheduleReturnsEnemiesInTickOrder() {
+        KillSchedule kills = new KillSchedule();
+        Enemy late = pool.obtain(EnemyPool.RUNT);
+        Enemy early = pool.obtain(EnemyPool.RUNT);
+        kills.schedule(late, 30);
+        kills.schedule(early, 10);
+
+        assertNull(kills.pollBefore(10));
+        assertSame(early, kills.pollBefore(31));
+        assertSame(late, kills.pollBefore(31));
+        assertNull(kills.pollBefore(31));
+    }
+
+    @Test
+    void rescheduledEntriesAreStale() {
+        KillSchedule kills = new KillSchedule();
+        Enemy enemy = pool.obtain(EnemyPool.RUNT);
+        kills.schedule(enemy, 10);
+        kills.schedule(enemy, 20);
+
+        assertNull(kills.pollBefore(11));
+        assertSame(enemy, kills.pollBefore(21));
+        assertNull(kills.pollBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    void recycledEnemiesAreStale() {
+        KillSchedule kills = new KillSchedule();
+        Enemy enemy = pool.obtain(EnemyPool.RUNT);
+        kills.schedule(enemy, 10);
+        pool.release(enemy);
+
+        assertSame(enemy, pool.obtain(EnemyPool.RUNT));
+        assertNull(kills.pollBefore(11));
+    }
+
+    @Test
+    void unreachableKillsCancelEarlierEntries() {
+        KillSchedule kills = new KillSchedule();
+        Enemy enemy = pool.obtain(EnemyPool.RUNT);
+        kills.schedule(enemy, 10);
+        kills.schedule(enemy, Long.MAX_VALUE);
+
+        assertNull(kills.pollBefore(Long.MAX_VALUE));
+    }
+}
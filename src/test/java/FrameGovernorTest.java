@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameGovernorTest {
+    private static final long BUDGET = 8_000_000;
+    private static final long SPIKE = 100_000_000;
+    // Just over budget, so the smoothed cost drops back under it within a frame once frames get cheap again.
+    private static final long OVER = 10_000_000;
+    private static final long UNDER = 0;
+    // Frames the smoothed cost needs to fall from just over the budget to below half of it.
+    private static final int DECAY_SLACK = 5;
+
+    private final FrameGovernor governor = new FrameGovernor(BUDGET);
+
+    private int framesUntilChange(long frameNanos) {
+        for (int frame = 1; frame <= 10_000; frame++) {
+            if (governor.record(frameNanos)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    private void assertWithinDecay(int expected, int frames) {
+        assertTrue(frames >= expected && frames <= expected + DECAY_SLACK, "expected ~" + expected + " but was " + frames);
+    }
+
+    @Test
+    void stepsDownAfterEightFramesOverBudget() {
+        assertEquals(8, framesUntilChange(SPIKE));
+        assertEquals(FrameGovernor.NO_HEALTH_LABELS, governor.getLevel());
+
+        assertEquals(8, framesUntilChange(SPIKE));
+        assertEquals(FrameGovernor.SPARSE_BEAMS, governor.getLevel());
+    }
+
+    @Test
+    void restoresAfterOneHundredTwentyFramesUnderHalfBudget() {
+        framesUntilChange(OVER);
+
+        assertWithinDecay(120, framesUntilChange(UNDER));
+        assertEquals(FrameGovernor.FULL, governor.getLevel());
+    }
+
+    @Test
+    void flappingDoublesTheRestoreWaitUpToSixteenTimes() {
+        framesUntilChange(OVER);
+        int[] expected = {120, 240, 480, 960, 1920, 1920};
+        for (int wait : expected) {
+            assertWithinDecay(wait, framesUntilChange(UNDER));
+            assertEquals(FrameGovernor.FULL, governor.getLevel());
+            framesUntilChange(OVER);
+            assertEquals(FrameGovernor.NO_HEALTH_LABELS, governor.getLevel());
+        }
+    }
+
+    @Test
+    void restoreWaitResetsOnceARestoreHolds() {
+        framesUntilChange(OVER);
+        framesUntilChange(UNDER);
+        framesUntilChange(OVER);
+        assertWithinDecay(240, framesUntilChange(UNDER));
+
+        for (int i = 0; i < 120; i++) {
+            governor.record(UNDER);
+        }
+        framesUntilChange(OVER);
+
+        assertWithinDecay(120, framesUntilChange(UNDER));
+    }
+
+    @Test
+    void degradedLevelsThrottleTheRepaintRate() {
+        for (int i = 0; i < FrameGovernor.HALF_RATE; i++) {
+            framesUntilChange(SPIKE);
+        }
+        assertEquals(32, governor.repaintDelay(16));
+
+        framesUntilChange(SPIKE);
+        assertEquals(64, governor.repaintDelay(16));
+        assertEquals(-1, framesUntilChange(SPIKE));
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameSimulationTest {
+    private static GameSimulation mixedTowers(MapGrid map, long seed, boolean parallelAttacks, int spacing) {
+        GameSimulation simulation = new GameSimulation(map, seed);
+        simulation.setParallelAttacks(parallelAttacks);
+        simulation.incrementGold(10_000_000);
+        int kind = 0;
+        for (int y = 0; y < map.getRows(); y++) {
+            for (int x = 0; x < map.getCols(); x++) {
+                if (map.isPlacable(x, y) && x % spacing == 0) {
+                    Tower tower = switch (kind++ % 5) {
+                        case 0 -> new AutoTower(0, 0);
+                        case 1 -> new DoTTower(0, 0);
+                        case 2 -> new SpreadDoTTower(0, 0);
+                        case 3 -> new SniperTower(0, 0);
+                        default -> new PermanentDoTTower(0, 0);
+                    };
+                    simulation.placeTower(x, y, tower);
+                }
+            }
+        }
+        return simulation;
+    }
+
+    private static long stateHash(GameSimulation simulation) {
+        long hash = simulation.getPlayerGold() * 31L + simulation.getPlayerHealth() + simulation.getWaveCounter() * 7L;
+        for (Enemy enemy : simulation.getEnemies()) {
+            hash = hash * 31 + enemy.getHealth() * 17L + Double.hashCode(enemy.getExactX()) + Double.hashCode(enemy.getExactY());
+        }
+        return hash * 31 + simulation.getEffects().size();
+    }
+
+    @Test
+    void steadyStateTicksDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        GameSimulation simulation = mixedTowers(new MapGrid(15, 20), 3, false, 3);
+        SnapshotBuffer snapshots = new SnapshotBuffer();
+        for (int i = 0; i < 250_000; i++) {
+            simulation.tick();
+            snapshots.beginWrite().capture(simulation, 1);
+            snapshots.publish();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 50_000; i++) {
+            simulation.tick();
+            snapshots.beginWrite().capture(simulation, 1);
+            snapshots.publish();
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    void parallelAttacksMatchSerialAttacks() {
+        GameSimulation parallel = mixedTowers(new MapGrid(181, 240), 7, true, 1);
+        GameSimulation serial = mixedTowers(new MapGrid(181, 240), 7, false, 1);
+        parallel.skipToWave(10);
+        serial.skipToWave(10);
+        int parallelTicks = 0;
+        for (int i = 0; i < 3_000; i++) {
+            // Mirrors GameSimulation.PARALLEL_ATTACK_THRESHOLD.
+            if ((long) parallel.getTowers().size() * parallel.getEnemies().size() >= 1 << 16) {
+                parallelTicks++;
+            }
+            parallel.tick();
+            serial.tick();
+            assertEquals(stateHash(serial), stateHash(parallel), "diverged at tick " + i);
+        }
+        assertTrue(parallelTicks > 0);
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ProjectileSystemTest {
+    // Several times the 1.2-cell hit diameter, so a check of only the end point would step over the enemy.
+    private static final float SPEED = 7f;
+    private static final int DAMAGE = 10;
+
+    private final MapGrid map = new MapGrid(15, 20);
+    private final GameSimulation simulation = new GameSimulation(map, 1);
+    private final EnemyPool pool = new EnemyPool(map, false, new Telemetry(map));
+    private final EnemyGrid grid = new EnemyGrid(map);
+    private final ProjectileSystem projectiles = new ProjectileSystem(16);
+    private final int middle = map.getPathPoints().size() / 2;
+
+    private Enemy enemyAt(int pathIndex) {
+        Enemy enemy = pool.obtain(EnemyPool.BRUTE);
+        for (long tick = 0; enemy.getPathIndex() < pathIndex; tick++) {
+            enemy.move(tick * GameSimulation.TICK_MILLIS);
+        }
+        return enemy;
+    }
+
+    private static float centerX(Enemy enemy) {
+        return (float) (enemy.getExactX() + 0.5);
+    }
+
+    private static float centerY(Enemy enemy) {
+        return (float) (enemy.getExactY() + 0.5);
+    }
+
+    // Launches a shell that starts three cells before `from` and crosses both `from` and `to` in a single tick.
+    private void fireThrough(Enemy from, Enemy to) {
+        float dx = centerX(to) - centerX(from);
+        float dy = centerY(to) - centerY(from);
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0) {
+            dx = 1;
+            length = 1;
+        }
+        float startX = centerX(from) - dx / length * 3;
+        float startY = centerY(from) - dy / length * 3;
+        projectiles.launch(ProjectileSystem.SHELL, startX, startY, from, SPEED, DAMAGE, 10, 0);
+    }
+
+    @Test
+    void fastShellsHitEnemiesTheyCrossInOneTick() {
+        Enemy enemy = enemyAt(middle);
+        int health = enemy.getHealth();
+        grid.build(List.of(enemy));
+        fireThrough(enemy, enemy);
+
+        projectiles.update(simulation, grid);
+
+        assertEquals(health - DAMAGE, enemy.getHealth());
+        assertEquals(0, projectiles.size());
+    }
+
+    @Test
+    void shellsHitTheFirstEnemyAlongTheirPath() {
+        Enemy near = enemyAt(middle);
+        Enemy far = enemyAt(middle + 1);
+        int health = near.getHealth();
+        grid.build(List.of(far, near));
+
+        fireThrough(near, far);
+        projectiles.update(simulation, grid);
+        assertEquals(health - DAMAGE, near.getHealth());
+        assertEquals(health, far.getHealth());
+
+        fireThrough(far, near);
+        projectiles.update(simulation, grid);
+        assertEquals(health - DAMAGE, near.getHealth());
+        assertEquals(health - DAMAGE, far.getHealth());
+    }
+
+    @Test
+    void missilesIgnoreTargetsRecycledByThePool() {
+        Enemy enemy = enemyAt(middle);
+        float targetX = centerX(enemy);
+        float targetY = centerY(enemy);
+        float startX = targetX + 4;
+        float startY = targetY + 4;
+        projectiles.launch(ProjectileSystem.MISSILE, startX, startY, enemy, 0.5f, DAMAGE, 100, 0);
+        DamageLedger ledger = new DamageLedger();
+        ledger.beginTick(List.of(enemy), 0);
+        projectiles.commitPending(ledger);
+        assertEquals(DAMAGE, enemy.getPendingHitDamage());
+
+        pool.release(enemy);
+        Enemy recycled = pool.obtain(EnemyPool.BRUTE);
+        recycled.move(0);
+        int health = recycled.getHealth();
+        ledger.beginTick(List.of(recycled), 0);
+        projectiles.commitPending(ledger);
+        grid.build(List.of(recycled));
+        for (int i = 0; i < 5; i++) {
+            projectiles.update(simulation, grid);
+        }
+
+        assertSame(enemy, recycled);
+        assertEquals(0, recycled.getPendingHitDamage());
+        assertEquals(health, recycled.getHealth());
+        // Without a live target the missile keeps its launch heading instead of turning towards the recycled enemy.
+        double along = Math.hypot(projectiles.getX(0) - startX, projectiles.getY(0) - startY);
+        assertEquals(2.5, along, 1e-3);
+        assertEquals(startX - along / Math.sqrt(2), projectiles.getX(0), 1e-3);
+        assertEquals(startY - along / Math.sqrt(2), projectiles.getY(0), 1e-3);
+    }
+}
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TowerDefenseEnvTest {
+    private final MapGrid map = new MapGrid(15, 20);
+    private final TowerDefenseEnv env =
+            new TowerDefenseEnv(1, 1, Long.MAX_VALUE, ByteBuffer.allocate(TowerDefenseEnv.observationSize(map)), 0);
+    private final boolean[] dones = new boolean[1];
+
+    @Test
+    void outOfRangeActionsAreRejected() {
+        int actions = TowerDefenseEnv.actionCount(map);
+
+        assertThrows(IllegalArgumentException.class, () -> env.step(actions, dones, 0));
+        assertThrows(IllegalArgumentException.class, () -> env.step(-1, dones, 0));
+    }
+
+    @Test
+    void outOfRangeActionsDoNotSellTowers() {
+        int cells = map.getRows() * map.getCols();
+        int cell = 0;
+        while (!map.isPlacable(cell % map.getCols(), cell / map.getCols())) {
+            cell++;
+        }
+        env.step(1 + cell, dones, 0);
+        int towers = env.getSimulation().getTowers().size();
+
+        int sellSameCellInNextBlock = 1 + (TowerKinds.PLACEMENTS.length + TowerKinds.UPGRADES.length + 1) * cells + cell;
+        assertThrows(IllegalArgumentException.class, () -> env.step(sellSameCellInNextBlock, dones, 0));
+
+        assertEquals(1, towers);
+        assertEquals(towers, env.getSimulation().getTowers().size());
+    }
+}